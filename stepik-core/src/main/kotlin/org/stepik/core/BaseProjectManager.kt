@@ -172,9 +172,8 @@ abstract class BaseProjectManager constructor(@field:XStreamOmitField val projec
         
         executor.execute {
             val stepikApiClient = authAndGetStepikApiClient()
-            if (isAuthenticated) {
-                root!!.reloadData(project, stepikApiClient)
-            }
+            val changes = if (isAuthenticated) root!!.syncData(project, stepikApiClient) else null
+            logger.info("The project ${project.name} synchronized: $changes")
             ProgressManager.getInstance()
                     .run(object : Task.Backgroundable(project, "Synchronize Project") {
                         override fun run(indicator: ProgressIndicator) {
@@ -182,9 +181,17 @@ abstract class BaseProjectManager constructor(@field:XStreamOmitField val projec
                                 return
                             }
                             
-                            repairProjectFiles(root!!)
+                            if (changes == null) {
+                                repairProjectFiles(root!!)
+                            } else {
+                                (changes.added + changes.modified).forEach { repairStepFiles(it) }
+                            }
                             repairSandbox()
                             
+                            if (changes != null && changes.isEmpty) {
+                                return
+                            }
+                            
                             ApplicationManager.getApplication()
                                     .invokeLater {
                                         VirtualFileManager.getInstance()
@@ -225,19 +232,23 @@ abstract class BaseProjectManager constructor(@field:XStreamOmitField val projec
     
     private fun repairProjectFiles(node: StudyNode) {
         if (project != null) {
-            if (node is StepNode) {
-                ApplicationManager.getApplication()
-                        .invokeAndWait {
-                            if (project.isDisposed) {
-                                return@invokeAndWait
-                            }
-                            getOrCreateSrcDirectory(project, node, false)
-                        }
-            }
+            repairStepFiles(node)
             node.children.forEach { this.repairProjectFiles(it) }
         }
     }
     
+    private fun repairStepFiles(node: StudyNode) {
+        if (project != null && node is StepNode) {
+            ApplicationManager.getApplication()
+                    .invokeAndWait {
+                        if (project.isDisposed) {
+                            return@invokeAndWait
+                        }
+                        getOrCreateSrcDirectory(project, node, false)
+                    }
+        }
+    }
+    
     override fun getUuid(): String {
         if (uuid == null) {
             uuid = UUID.randomUUID()
@@ -101,8 +101,8 @@ class DownloadSubmission : CodeQuizAction(TEXT, DESCRIPTION, AllStepikIcons.Tool
                     .step(stepNode.id)
                     .user(currentUser.id)
                     .order(Order.DESC)
-                    .execute()
-                    .items
+                    .pages()
+                    .use { pages -> pages.asSequence().flatMap { it.items.asSequence() }.toList() }
         } catch (e: StepikClientException) {
             logger.warn("Failed get submissions", e)
             null
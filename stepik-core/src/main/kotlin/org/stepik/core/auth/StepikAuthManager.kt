@@ -6,7 +6,8 @@ import com.intellij.ide.BrowserUtil
 import com.intellij.ide.passwordSafe.PasswordSafe
 import com.intellij.ide.util.PropertiesComponent
 import com.intellij.util.net.HttpConfigurable
-import org.stepik.api.client.HttpTransportClient
+import org.stepik.api.client.AsyncHttpTransportClient
+import org.stepik.api.client.RetryingTransportClient
 import org.stepik.api.client.StepikApiClient
 import org.stepik.api.exceptions.StepikClientException
 import org.stepik.api.objects.auth.TokenInfo
@@ -73,21 +74,26 @@ object StepikAuthManager : Loggable {
             logger.info(userAgent)
             
             val instance = HttpConfigurable.getInstance()
-            val client: StepikApiClient
-            client = if (instance.USE_HTTP_PROXY) {
+            val transportClient = if (instance.USE_HTTP_PROXY) {
                 logger.info("Uses proxy: Host = ${instance.PROXY_HOST}, Port = ${instance.PROXY_PORT}")
-                val transportClient: HttpTransportClient =
-                        HttpTransportClient.getInstance(instance.PROXY_HOST, instance.PROXY_PORT, userAgent)
-                StepikApiClient(transportClient, host)
+                AsyncHttpTransportClient.getInstance(instance.PROXY_HOST, instance.PROXY_PORT, userAgent)
             } else {
-                StepikApiClient(userAgent, host)
+                AsyncHttpTransportClient.getInstance(userAgent)
             }
+            val client = StepikApiClient(RetryingTransportClient(transportClient), host)
             
             val lastUserId = lastUser
             
             val tokenInfo = getTokenInfo(lastUserId, client)
             
             client.tokenInfo = tokenInfo
+            client.tokenManager.clientId = clientId
+            client.tokenManager.listeners.add { refreshed ->
+                val userId = lastUser
+                if (userId != 0L) {
+                    setTokenInfo(userId, refreshed)
+                }
+            }
             
             return client
         }
@@ -100,8 +106,15 @@ object StepikAuthManager : Loggable {
      *  * Try refresh a token.
      *  * Show a browser for authentication or registration
      *
+     * An authenticated client is returned without a lock and a request:
+     * its token is refreshed by [org.stepik.api.auth.TokenManager] before it expires and after 401.
      */
     fun authentication(openBrowser: Boolean = true): StepikAuthState {
+        if (state === AUTH && stepikApiClient.tokenInfo?.accessToken != null &&
+                !stepikApiClient.tokenManager.isExpired) {
+            return AUTH
+        }
+        
         synchronized(this) {
             val value = minorLogin()
             if (value !== AUTH && openBrowser) {
@@ -141,16 +154,9 @@ object StepikAuthManager : Loggable {
             return AUTH
         }
         
-        val tokenInfo = stepikApiClient.tokenInfo ?: getTokenInfo(lastUser)
-        
-        val refreshToken = tokenInfo.refreshToken
-        
-        if (refreshToken != null) {
+        if (stepikApiClient.tokenManager.canRefresh) {
             try {
-                stepikApiClient.oauth2()
-                        .userAuthenticationRefresh(clientId, refreshToken)
-                        .execute()
-                logger.info("Refresh a token is successfully")
+                stepikApiClient.tokenManager.refresh()
                 return AUTH
             } catch (re: StepikClientException) {
                 logger.info("Refresh a token failed: " + re.message)
@@ -4,17 +4,10 @@ import com.intellij.openapi.project.Project
 import com.thoughtworks.xstream.annotations.XStreamAlias
 import com.thoughtworks.xstream.annotations.XStreamOmitField
 import org.stepik.api.client.StepikApiClient
-import org.stepik.api.exceptions.StepikClientException
 import org.stepik.api.objects.StudyObject
-import org.stepik.api.objects.progresses.Progresses
-import org.stepik.core.auth.StepikAuthManager
-import org.stepik.core.auth.StepikAuthManager.isAuthenticated
 import org.stepik.core.courseFormat.StudyStatus.FAILED
 import org.stepik.core.courseFormat.StudyStatus.SOLVED
 import org.stepik.core.courseFormat.StudyStatus.UNCHECKED
-import org.stepik.core.utils.batch
-import org.stepik.core.utils.refreshProjectView
-import java.util.concurrent.Executors
 
 abstract class Node(project: Project? = null,
                     stepikApiClient: StepikApiClient? = null,
@@ -61,6 +54,7 @@ abstract class Node(project: Project? = null,
     
     fun setChildren(children: List<Node>) {
         _children = children
+        childrenChanged()
     }
     
     override var wasDeleted: Boolean = false
@@ -73,55 +67,36 @@ abstract class Node(project: Project? = null,
     @Volatile
     private var _status: StudyStatus? = UNCHECKED
     
-    private fun updateStatus() {
-        val stepikApiClient = StepikAuthManager.authAndGetStepikApiClient()
-        if (!isAuthenticated) {
-            return
-        }
-        
-        val progressIdToNode = children.filter { it._status == UNCHECKED && !it.checkingStatus }
-                .associateBy { it.data.progress }
-        
-        if (progressIdToNode.isNotEmpty()) {
-            progressIdToNode.keys.batch(100)
-                    .forEach { ids ->
-                        var page = 1
-                        var progresses: Progresses
-                        do {
-                            val query = stepikApiClient.progresses()
-                                    .get()
-                                    .id(*ids.toTypedArray())
-                                    .page(page++)
-                            try {
-                                progresses = query.execute()
-                                progresses.forEach { progress ->
-                                    val id = progress.id
-                                    val node = progressIdToNode[id] ?: if (id == data.progress) this else null
-                                    node?.apply {
-                                        _status = if (progress.isPassed) SOLVED else FAILED
-                                        checkingStatus = false
-                                    }
-                                }
-                            } catch (e: StepikClientException) {
-                                logger.warn(e)
-                                break
-                            }
-                        } while (progresses.meta.hasNext)
-                    }
+    /**
+     * Marks the node as being checked if its status is unknown and it isn't checked yet
+     */
+    internal fun startStatusCheck(): Boolean {
+        val status = _status
+        if ((status != UNCHECKED && status != null) || checkingStatus) {
+            return false
         }
-        
-        refreshProjectView(project)
+        checkingStatus = true
+        return true
+    }
+    
+    /**
+     * Applies a received progress and updates the status of the parent
+     */
+    internal fun statusChecked(passed: Boolean) {
+        _status = if (passed) SOLVED else FAILED
+        checkingStatus = false
+        (parent as? Node)?.childStatusChanged()
+    }
+    
+    internal fun cancelStatusCheck() {
+        checkingStatus = false
     }
     
     override var status: StudyStatus
         get() {
             val status = _status
             if ((status == UNCHECKED || status == null) && !checkingStatus) {
-                checkingStatus = true
-                
-                executor.execute {
-                    updateStatus()
-                }
+                ProgressService.request(this)
             }
             
             return status ?: UNCHECKED
@@ -132,12 +107,58 @@ abstract class Node(project: Project? = null,
                     return
                 }
                 _status = value
-                var parent = parent
-                while (parent != null) {
-                    parent.status = UNCHECKED
-                    parent = parent.parent
+                val parent = parent
+                if (parent is Node) {
+                    parent.childStatusChanged()
+                } else {
+                    parent?.status = UNCHECKED
+                }
+            }
+        }
+    
+    /**
+     * Derives the status from statuses of children, so a solved step doesn't require requests for ancestors.
+     * The node is solved when all children are solved. While some children are unknown, the current status is kept
+     * and the unknown statuses are requested; they update the node when they arrive.
+     * A failed child makes a solved node be checked by the server again: a solved child is never failed later
+     * (see [status]), so the node was solved by the server with this child unknown.
+     * Nodes of adaptive courses are checked by the server.
+     */
+    private fun childStatusChanged() {
+        if (isAdaptive) {
+            status = UNCHECKED
+            return
+        }
+        
+        var solved = 0
+        var failed = 0
+        var unknown = 0
+        children.filterNot { it.wasDeleted }
+                .forEach {
+                    when (it._status) {
+                        SOLVED -> solved++
+                        FAILED -> failed++
+                        else   -> unknown++
+                    }
+                }
+        
+        when {
+            failed > 0 && _status === SOLVED -> status = UNCHECKED
+            unknown > 0                      -> ProgressService.request(this)
+            failed == 0 && solved > 0        -> status = SOLVED
+        }
+    }
+    
+    private val isAdaptive: Boolean
+        get() {
+            var node: StudyNode? = this
+            while (node != null) {
+                if (node.data.isAdaptive) {
+                    return true
                 }
+                node = node.parent
             }
+            return false
         }
     
     override val isLeaf: Boolean
@@ -163,8 +184,87 @@ abstract class Node(project: Project? = null,
     open val directoryPrefix
         get() = ""
     
+    @XStreamOmitField
+    @Volatile
+    private var childIndex: ChildIndex? = null
+    
+    @XStreamOmitField
+    @Volatile
+    private var treeIndex: Map<Class<*>, Map<Long, StudyNode>>? = null
+    
+    /**
+     * Incremented under a lock of this node when children of this node or of its descendants change,
+     * so an index built from older children is never stored
+     */
+    @XStreamOmitField
+    @Volatile
+    private var treeVersion = 0
+    
     private val mapNodes: Map<Long, StudyNode>
-        get() = children.associateBy { it.id }
+        get() = index.byId
+    
+    /**
+     * Built when children are set, a restored node builds it on first use
+     */
+    private val index: ChildIndex
+        get() {
+            childIndex?.let { return it }
+            
+            val version = treeVersion
+            val index = ChildIndex(children)
+            synchronized(this) {
+                if (treeVersion == version) {
+                    childIndex = index
+                }
+            }
+            return index
+        }
+    
+    /**
+     * Returns nodes of the subtree by node classes and data classes
+     */
+    private val subtreeIndex: Map<Class<*>, Map<Long, StudyNode>>
+        get() {
+            treeIndex?.let { return it }
+            
+            val version = treeVersion
+            val index = mutableMapOf<Class<*>, MutableMap<Long, StudyNode>>()
+            fun collect(node: StudyNode) {
+                node.children.forEach {
+                    index.getOrPut(it.javaClass) { mutableMapOf() }.putIfAbsent(it.id, it)
+                    index.getOrPut(it.data.javaClass) { mutableMapOf() }.putIfAbsent(it.id, it)
+                    collect(it)
+                }
+            }
+            collect(this)
+            
+            synchronized(this) {
+                if (treeVersion == version) {
+                    treeIndex = index
+                }
+            }
+            return index
+        }
+    
+    /**
+     * Rebuilds an index of this node and drops subtree indexes of this node and its ancestors
+     */
+    private fun childrenChanged() {
+        val index = ChildIndex(children)
+        var node: StudyNode? = this
+        while (node != null) {
+            (node as? Node)?.let {
+                synchronized(it) {
+                    it.treeVersion++
+                    it.treeIndex = null
+                    if (it === this) {
+                        it.childIndex = index
+                    }
+                }
+            }
+            node = node.parent
+        }
+    }
     
     protected abstract val childClass: Class<out Node>
     
@@ -198,55 +298,96 @@ abstract class Node(project: Project? = null,
     
     override fun getChildById(id: Long) = mapNodes[id]
     
+    /**
+     * Finds a node of the subtree with [id] which node class or data class is [clazz] or its subclass.
+     * Node classes are matched as well as data classes, so `getChildByClassAndId(LessonNode::class.java, id)`
+     * finds the same node as a lookup by [org.stepik.api.objects.lessons.CompoundUnitLesson].
+     */
     override fun getChildByClassAndId(clazz: Class<out StudyNode>, id: Long): StudyNode? {
-        return if (childDataClass == clazz) {
-            getChildById(id)
-        } else {
-            children.mapNotNull { it.getChildByClassAndId(clazz, id) }
-                    .firstOrNull()
-        }
+        val index = subtreeIndex
+        index[clazz]?.get(id)?.let { return it }
+        
+        return index.entries.firstOrNull { clazz.isAssignableFrom(it.key) && id in it.value }
+                ?.value
+                ?.get(id)
     }
     
-    override fun getChildByPosition(position: Int): StudyNode? {
-        return children.first { it.position == position }
-    }
+    override fun getChildByPosition(position: Int) = index.byPosition[position]
     
     protected open fun getChildDataList(stepikApiClient: StepikApiClient): List<StudyObject> {
         return emptyList()
     }
     
     final override fun init(project: Project?, stepikApiClient: StepikApiClient?, parent: StudyNode?) {
+        if (stepikApiClient == null) {
+            initLevel(project, null, parent).forEach { it.init(project, null, this) }
+        } else {
+            StudyTreeBuilder.build(this, project, stepikApiClient, parent)
+        }
+    }
+    
+    /**
+     * Initializes this node without its subtree and returns children which must be initialized next.
+     * With [changes] only added children and children with another update date are returned,
+     * other children are initialized in place without requests.
+     */
+    internal fun initLevel(
+            project: Project?,
+            stepikApiClient: StepikApiClient?,
+            parent: StudyNode?,
+            changes: StudyTreeChanges? = null): List<Node> {
         beforeInit()
         
         this.parent = parent
         this.project = project
         
-        if (stepikApiClient != null) {
-            val processed = mutableListOf<StudyNode>()
-            val children = this.children.toMutableList()
-            
-            for (data in getChildDataList(stepikApiClient)) {
-                var child = mapNodes[data.id]
-                if (child == null) {
-                    try {
-                        child = childClass.newInstance()
-                        children.add(child)
-                    } catch (e: Exception) {
-                        logger.warn("Can't get new instance for child", e)
-                        break
-                    }
+        if (stepikApiClient == null) {
+            return children
+        }
+        
+        val processed = mutableListOf<StudyNode>()
+        val unchanged = mutableSetOf<StudyNode>()
+        val children = this.children.toMutableList()
+        
+        for (data in getChildDataList(stepikApiClient)) {
+            var child = mapNodes[data.id]
+            if (child == null) {
+                try {
+                    child = childClass.newInstance()
+                    children.add(child)
+                    changes?.added(child)
+                } catch (e: Exception) {
+                    logger.warn("Can't get new instance for child", e)
+                    break
+                }
+            } else if (changes != null) {
+                if (!child.wasDeleted && child.data.updateDate == data.updateDate) {
+                    unchanged.add(child)
+                } else {
+                    changes.modified(child)
                 }
-                child!!.data = data
-                child.wasDeleted = wasDeleted
-                processed.add(child)
             }
-            _children = children.sortedWith(StudyNodeComparator)
-            
-            children.filterNot { it in processed }
-                    .forEach { it.wasDeleted = true }
+            child!!.data = data
+            child.wasDeleted = wasDeleted
+            processed.add(child)
         }
+        _children = children.sortedWith(StudyNodeComparator)
+        childrenChanged()
         
-        children.forEach { it.init(project, stepikApiClient, this) }
+        children.filterNot { it in processed }
+                .forEach {
+                    if (!it.wasDeleted) {
+                        changes?.removed(it)
+                    }
+                    it.wasDeleted = true
+                }
+        
+        if (changes == null) {
+            return this.children
+        }
+        
+        unchanged.forEach { it.init(project, null, this) }
+        return this.children.filterNot { it in unchanged }
     }
     
     open fun beforeInit() {
@@ -259,10 +400,19 @@ abstract class Node(project: Project? = null,
         }
     }
     
+    override fun syncData(project: Project, stepikApiClient: StepikApiClient): StudyTreeChanges {
+        if (!loadData(stepikApiClient, data.id)) {
+            return StudyTreeChanges()
+        }
+        
+        return StudyTreeBuilder.sync(this, project, stepikApiClient, parent)
+    }
+    
     protected abstract fun loadData(stepikApiClient: StepikApiClient, id: Long): Boolean
     
     override fun resetStatus() {
         children.forEach { it.resetStatus() }
+        checkingStatus = false
         status = UNCHECKED
     }
     
@@ -292,7 +442,15 @@ abstract class Node(project: Project? = null,
         return result
     }
     
-    companion object {
-        private val executor = Executors.newFixedThreadPool(5)
+    private class ChildIndex(children: List<Node>) {
+        val byId = HashMap<Long, StudyNode>(children.size * 2)
+        val byPosition = HashMap<Int, StudyNode>(children.size * 2)
+        
+        init {
+            children.forEach {
+                byId[it.id] = it
+                byPosition.putIfAbsent(it.position, it)
+            }
+        }
     }
 }
@@ -0,0 +1,108 @@
+package org.stepik.core.courseFormat
+
+import com.intellij.openapi.project.Project
+import org.stepik.api.exceptions.StepikClientException
+import org.stepik.core.auth.StepikAuthManager.authAndGetStepikApiClient
+import org.stepik.core.auth.StepikAuthManager.isAuthenticated
+import org.stepik.core.common.Loggable
+import org.stepik.core.utils.refreshProjectView
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.MILLISECONDS
+
+/**
+ * Loads statuses of study nodes in batches.
+ * A request for one node collects all nodes with unknown statuses of its tree on a loading thread,
+ * requests coming within [BATCH_DELAY] are merged, and every progress id is requested once per batch.
+ * Progresses which the server didn't return stay unknown and are requested again when their statuses are read.
+ * Project views are refreshed once per batch.
+ */
+object ProgressService : Loggable {
+    private const val BATCH_DELAY = 100L
+    
+    private val executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "stepik-progresses").apply { isDaemon = true }
+    }
+    
+    private val roots = Collections.newSetFromMap(IdentityHashMap<StudyNode, Boolean>())
+    private var scheduled = false
+    
+    /**
+     * Called from a status getter, so it only remembers a root of the tree and trees are traversed later
+     */
+    fun request(node: Node) {
+        var root: StudyNode = node
+        while (true) {
+            root = root.parent ?: break
+        }
+        
+        synchronized(this) {
+            roots.add(root)
+            if (!scheduled) {
+                scheduled = true
+                executor.schedule({ load() }, BATCH_DELAY, MILLISECONDS)
+            }
+        }
+    }
+    
+    private fun collect(node: StudyNode, batch: MutableMap<String, MutableList<Node>>) {
+        if (node is Node && node.startStatusCheck()) {
+            val progress = node.data.progress
+            if (progress.isNotEmpty()) {
+                batch.getOrPut(progress) { mutableListOf() }.add(node)
+            }
+        }
+        node.children.forEach { collect(it, batch) }
+    }
+    
+    private fun load() {
+        val requested = synchronized(this) {
+            scheduled = false
+            val requested = roots.toList()
+            roots.clear()
+            requested
+        }
+        
+        val batch = LinkedHashMap<String, MutableList<Node>>()
+        requested.forEach { collect(it, batch) }
+        if (batch.isEmpty()) {
+            return
+        }
+        
+        val stepikApiClient = authAndGetStepikApiClient()
+        if (!isAuthenticated) {
+            batch.values.forEach { nodes -> nodes.forEach { it.cancelStatusCheck() } }
+            return
+        }
+        
+        val passed = HashMap<String, Boolean>()
+        try {
+            stepikApiClient.progresses()
+                    .get()
+                    .id(batch.keys.toList())
+                    .execute()
+                    .items
+                    .forEach { passed[it.id] = it.isPassed }
+        } catch (e: StepikClientException) {
+            logger.warn("Failed load ${batch.size} progresses", e)
+            batch.values.forEach { nodes -> nodes.forEach { it.cancelStatusCheck() } }
+            return
+        }
+        
+        val projects = mutableSetOf<Project>()
+        for ((id, nodes) in batch) {
+            nodes.forEach { node ->
+                val isPassed = passed[id]
+                if (isPassed != null) {
+                    node.statusChecked(isPassed)
+                } else {
+                    node.cancelStatusCheck()
+                }
+                node.project?.let { projects.add(it) }
+            }
+        }
+        
+        projects.forEach { refreshProjectView(it) }
+    }
+}
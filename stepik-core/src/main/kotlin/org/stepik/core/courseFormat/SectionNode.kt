@@ -52,48 +52,33 @@ class SectionNode(project: Project? = null, stepikApiClient: StepikApiClient? =
     override fun getChildDataList(stepikApiClient: StepikApiClient): List<StudyObject> {
         val objects = ArrayList<CompoundUnitLesson>()
         try {
-            val unitsIds: List<Long>
-            val data = data as Section
-            unitsIds = data.units
+            val unitsIds = (data as Section).units
 
             if (!unitsIds.isEmpty()) {
-                val size = unitsIds.size
-                val list = unitsIds.toTypedArray()
-                var start = 0
-                var end: Int
-                while (start < size) {
-                    end = start + 20
-                    if (end > size) {
-                        end = size
-                    }
-                    val part = list.copyOfRange(start, end)
-                    start = end
-                    val units = stepikApiClient.units()
-                            .get()
-                            .id(*part)
-                            .execute()
-
-                    val unitsMap = HashMap<Long, Unit>()
-
-                    val lessonsIds = ArrayList<Long>()
-
-                    units.units.forEach { unit ->
-                        val lessonId = unit.lesson.toLong()
-                        lessonsIds.add(lessonId)
-                        unitsMap[lessonId] = unit
-                    }
-
-                    val lessons = stepikApiClient.lessons()
-                            .get()
-                            .id(lessonsIds)
-                            .execute()
-
-                    lessons.items
-                            .forEach { lesson ->
-                                objects.add(CompoundUnitLesson(unitsMap.getOrDefault(lesson.id, Unit()),
-                                        lesson))
-                            }
+                val units = stepikApiClient.units()
+                        .get()
+                        .id(unitsIds)
+                        .execute()
+
+                val unitsMap = HashMap<Long, Unit>()
+
+                val lessonsIds = ArrayList<Long>()
+
+                units.units.forEach { unit ->
+                    val lessonId = unit.lesson.toLong()
+                    lessonsIds.add(lessonId)
+                    unitsMap[lessonId] = unit
                 }
+
+                val lessons = stepikApiClient.lessons()
+                        .get()
+                        .id(lessonsIds)
+                        .execute()
+
+                lessons.items
+                        .forEach { lesson ->
+                            objects.add(CompoundUnitLesson(unitsMap.getOrDefault(lesson.id, Unit()), lesson))
+                        }
             }
         } catch (logged: StepikClientException) {
             logger.warn("A section initialization don't is fully", logged)
@@ -51,6 +51,11 @@ interface StudyNode : Loggable {
 
     fun reloadData(project: Project, stepikApiClient: StepikApiClient)
 
+    /**
+     * Reloads only changed subtrees and returns changed nodes
+     */
+    fun syncData(project: Project, stepikApiClient: StepikApiClient): StudyTreeChanges
+
     fun resetStatus()
 
     fun passed()
@@ -0,0 +1,104 @@
+package org.stepik.core.courseFormat
+
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import org.stepik.api.client.StepikApiClient
+import org.stepik.core.common.Loggable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Builds a study tree level by level on a bounded pool.
+ * A node is initialized as soon as its parent received children data,
+ * so sections stream into fetches of units and lessons and lessons stream into fetches of steps
+ * while siblings are fetched concurrently.
+ * The build is cancelled by the progress indicator of a calling thread.
+ *
+ * A synchronization descends only into added subtrees and nodes with another update date.
+ */
+object StudyTreeBuilder : Loggable {
+    private const val PARALLELISM = 6
+    private const val CANCEL_CHECK_INTERVAL = 100L
+    
+    private val executor = Executors.newFixedThreadPool(PARALLELISM) { runnable ->
+        Thread(runnable, "stepik-tree-builder").apply { isDaemon = true }
+    }
+    
+    fun build(root: Node, project: Project?, stepikApiClient: StepikApiClient, parent: StudyNode?) {
+        val build = Build(project, stepikApiClient)
+        build.submit(root, parent)
+        build.await()
+    }
+    
+    /**
+     * Updates a tree of [root] which data has been reloaded and returns changed nodes
+     */
+    fun sync(root: Node, project: Project?, stepikApiClient: StepikApiClient, parent: StudyNode?): StudyTreeChanges {
+        val changes = StudyTreeChanges()
+        changes.modified(root)
+        val build = Build(project, stepikApiClient, changes)
+        build.submit(root, parent)
+        build.await()
+        return changes
+    }
+    
+    private class Build(
+            private val project: Project?,
+            private val stepikApiClient: StepikApiClient,
+            private val changes: StudyTreeChanges? = null) {
+        private val pending = AtomicInteger()
+        private val done = CompletableFuture<Unit>()
+        
+        @Volatile
+        private var cancelled = false
+        
+        fun submit(node: Node, parent: StudyNode?) {
+            pending.incrementAndGet()
+            executor.execute {
+                try {
+                    if (!cancelled) {
+                        node.initLevel(project, stepikApiClient, parent, changes)
+                                .forEach { submit(it, node) }
+                    }
+                } catch (e: Throwable) {
+                    cancelled = true
+                    done.completeExceptionally(e)
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        done.complete(Unit)
+                    }
+                }
+            }
+        }
+        
+        fun await() {
+            val indicator = ProgressManager.getInstance().progressIndicator
+            while (true) {
+                if (indicator?.isCanceled == true) {
+                    cancelled = true
+                    throw ProcessCanceledException()
+                }
+                
+                try {
+                    done.get(CANCEL_CHECK_INTERVAL, MILLISECONDS)
+                    return
+                } catch (e: TimeoutException) {
+                    // Check the indicator again
+                } catch (e: InterruptedException) {
+                    cancelled = true
+                    Thread.currentThread().interrupt()
+                    throw ProcessCanceledException(e)
+                } catch (e: ExecutionException) {
+                    val cause = e.cause
+                    logger.warn("Failed build a study tree", cause)
+                    throw cause as? RuntimeException ?: cause as? Error ?: e
+                }
+            }
+        }
+    }
+}
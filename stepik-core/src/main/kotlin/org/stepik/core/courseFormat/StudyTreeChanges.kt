@@ -0,0 +1,43 @@
+package org.stepik.core.courseFormat
+
+/**
+ * Nodes of a study tree changed by a synchronization.
+ * An added node is reported together with all nodes of its subtree,
+ * a modified node has another update date or was deleted before.
+ */
+class StudyTreeChanges {
+    private val _added = mutableListOf<StudyNode>()
+    private val _removed = mutableListOf<StudyNode>()
+    private val _modified = mutableListOf<StudyNode>()
+    
+    val added: List<StudyNode>
+        @Synchronized get() = _added.toList()
+    
+    val removed: List<StudyNode>
+        @Synchronized get() = _removed.toList()
+    
+    val modified: List<StudyNode>
+        @Synchronized get() = _modified.toList()
+    
+    val isEmpty: Boolean
+        @Synchronized get() = _added.isEmpty() && _removed.isEmpty() && _modified.isEmpty()
+    
+    @Synchronized
+    internal fun added(node: StudyNode) {
+        _added.add(node)
+    }
+    
+    @Synchronized
+    internal fun removed(node: StudyNode) {
+        _removed.add(node)
+    }
+    
+    @Synchronized
+    internal fun modified(node: StudyNode) {
+        _modified.add(node)
+    }
+    
+    override fun toString(): String {
+        return "StudyTreeChanges(added=${added.size}, removed=${removed.size}, modified=${modified.size})"
+    }
+}
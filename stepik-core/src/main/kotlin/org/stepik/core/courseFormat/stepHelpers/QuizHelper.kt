@@ -8,7 +8,6 @@ import org.stepik.api.objects.attempts.Component
 import org.stepik.api.objects.attempts.Dataset
 import org.stepik.api.objects.submissions.Reply
 import org.stepik.api.objects.submissions.Submission
-import org.stepik.api.objects.submissions.Submissions
 import org.stepik.api.queries.Order
 import org.stepik.core.auth.StepikAuthManager.authAndGetStepikApiClient
 import org.stepik.core.auth.StepikAuthManager.currentUser
@@ -214,25 +213,17 @@ open class QuizHelper(project: Project, stepNode: StepNode) : StepHelper(project
             }
             val userId = user.id
             submissionsCount = 0
-            var page = 1
-            
-            var submissions: Submissions
-            do {
-                try {
-                    submissions = stepikApiClient.submissions()
-                            .get()
-                            .step(stepNode.id)
-                            .user(userId)
-                            .page(page)
-                            .execute()
-                } catch (e: StepikClientException) {
-                    logger.warn("Failed get submissions count", e)
-                    return 0
-                }
-                
-                submissionsCount += submissions.count
-                page++
-            } while (submissions.meta.hasNext)
+            try {
+                stepikApiClient.submissions()
+                        .get()
+                        .step(stepNode.id)
+                        .user(userId)
+                        .pages()
+                        .use { pages -> pages.forEach { submissionsCount += it.count } }
+            } catch (e: StepikClientException) {
+                logger.warn("Failed get submissions count", e)
+                return 0
+            }
         }
         return submissionsCount
     }
@@ -4,7 +4,9 @@ import com.intellij.ide.BrowserUtil
 import com.intellij.openapi.application.ApplicationManager.getApplication
 import com.intellij.openapi.fileEditor.FileEditorManager
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.LocalFileSystem
 import javafx.scene.web.WebEngine
+import org.stepik.api.actions.StepikFilesAction
 import org.stepik.api.exceptions.StepikClientException
 import org.stepik.api.objects.recommendations.ReactionValues.SOLVED
 import org.stepik.api.objects.recommendations.ReactionValues.TOO_EASY
@@ -21,11 +23,14 @@ import org.stepik.core.getStudyNode
 import org.stepik.core.host
 import org.stepik.core.utils.getOrCreateSrcDirectory
 import org.stepik.core.utils.navigate
-import org.stepik.core.utils.runWriteActionLater
 import org.w3c.dom.Element
 import org.w3c.dom.events.Event
 import org.w3c.dom.events.EventListener
 import java.io.IOException
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
 
 class LinkListener(val project: Project,
                    private val browser: StudyBrowserWindow,
@@ -79,36 +84,91 @@ class LinkListener(val project: Project,
         val prefix = target.getAttribute("data-file-prefix")
         val extension = target.getAttribute("data-file-ext")
         
-        val stepikApiClient = StepikAuthManager.stepikApiClient
-        val content: String
-        try {
-            content = stepikApiClient.files()
-                    .get(link, contentType)
-        } catch (e: StepikClientException) {
-            logger.warn(e)
-            return
-        }
+        val srcDirectory = getOrCreateSrcDirectory(project, node, true) ?: return
+        val directory = Paths.get(srcDirectory.path)
+        val files = StepikAuthManager.stepikApiClient.files()
+        val destination = reserveDestination(files, link, directory, "${prefix}_${node.id}", extension) ?: return
         
-        val srcDirectory = getOrCreateSrcDirectory(project, (node as StepNode?)!!, true) ?: return
-        getApplication().runWriteActionLater {
-            var index = 1
-            val filename = "${prefix}_${node.id}"
-            var currentFileName = filename + extension
-            while (srcDirectory.findChild(currentFileName) != null) {
-                currentFileName = "${filename}_${index++}$extension"
+        getApplication().executeOnPooledThread {
+            try {
+                files.download(link, destination, contentType)
+            } catch (e: StepikClientException) {
+                logger.warn(e)
+                deleteReservation(files, link, destination)
+                return@executeOnPooledThread
+            } finally {
+                synchronized(downloading) {
+                    downloading.remove(destination)
+                }
             }
-            val file = srcDirectory.createChildData(null, currentFileName)
-            file.setBinaryContent(content.toByteArray())
             
-            try {
+            getApplication().invokeLater {
+                if (project.isDisposed) {
+                    return@invokeLater
+                }
+                val file = LocalFileSystem.getInstance().refreshAndFindFileByPath(destination.toString())
+                        ?: return@invokeLater
                 FileEditorManager.getInstance(project)
                         .openFile(file, false)
-            } catch (e: IOException) {
-                logger.warn(e)
             }
         }
     }
     
+    /**
+     * Returns a destination of a part left by a failed or cancelled download of [link], so the download is resumed,
+     * or creates an empty file with a free name. Concurrent downloads never share a destination or its part.
+     */
+    private fun reserveDestination(
+            files: StepikFilesAction,
+            link: String,
+            directory: Path,
+            filename: String,
+            extension: String): Path? {
+        synchronized(downloading) {
+            var index = 1
+            var currentFileName = filename + extension
+            while (true) {
+                val destination = directory.resolve(currentFileName)
+                if (destination !in downloading) {
+                    if (files.hasPart(link, destination)) {
+                        downloading.add(destination)
+                        return destination
+                    }
+                    
+                    if (Files.notExists(destination.resolveSibling("$currentFileName.part"))) {
+                        try {
+                            downloading.add(Files.createFile(destination))
+                            return destination
+                        } catch (e: FileAlreadyExistsException) {
+                            // Taken by another download, try the next name
+                        } catch (e: IOException) {
+                            logger.warn("Failed create $destination", e)
+                            return null
+                        }
+                    }
+                }
+                currentFileName = "${filename}_${index++}$extension"
+            }
+        }
+    }
+    
+    /**
+     * Deletes an empty reserved file, a part which can be resumed is kept for the next download of [link]
+     */
+    private fun deleteReservation(files: StepikFilesAction, link: String, destination: Path) {
+        try {
+            if (Files.exists(destination) && Files.size(destination) == 0L) {
+                Files.delete(destination)
+            }
+        } catch (e: IOException) {
+            logger.warn("Failed delete $destination", e)
+        }
+        
+        if (!files.hasPart(link, destination)) {
+            files.deletePart(destination)
+        }
+    }
+    
     private fun browseAdaptiveLink(link: String) {
         val items = link.split("/")
         if (items.size < 2) {
@@ -186,4 +246,11 @@ class LinkListener(val project: Project,
         
         return attributes.getNamedItem("href")?.nodeValue ?: ""
     }
+    
+    companion object {
+        /**
+         * Destinations of running downloads
+         */
+        private val downloading = mutableSetOf<Path>()
+    }
 }
@@ -51,23 +51,6 @@ private fun initEmptyStudyNode(): StudyObject {
     return course
 }
 
-fun <T> Set<T>.batch(n: Int): Sequence<List<T>> {
-    return BatchingSequence(this.asSequence(), n)
-}
-
-private class BatchingSequence<out T>(val source: Sequence<T>, val batchSize: Int) : Sequence<List<T>> {
-    override fun iterator(): Iterator<List<T>> = object : AbstractIterator<List<T>>() {
-        val iterate = if (batchSize > 0) source.iterator() else emptyList<T>().iterator()
-        override fun computeNext() {
-            if (iterate.hasNext()) {
-                setNext(iterate.asSequence().take(batchSize).toList())
-            } else {
-                done()
-            }
-        }
-    }
-}
-
 fun refreshProjectView(project: Project?) {
     project ?: return
     ApplicationManager.getApplication().invokeLater {
@@ -1,8 +1,13 @@
 package org.stepik.core.courseFormat
 
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
 import org.junit.Before
 import org.junit.Test
+import org.stepik.core.courseFormat.StudyStatus.FAILED
+import org.stepik.core.courseFormat.StudyStatus.SOLVED
+import org.stepik.core.courseFormat.StudyStatus.UNCHECKED
 
 
 class StudyNodeTest {
@@ -123,4 +128,104 @@ class StudyNodeTest {
         lessonNode.id = 2
         assertEquals("section1/lesson2/step1", stepNode.path)
     }
+
+    @Test
+    fun allSolvedChildrenSolveParents() {
+        val secondStep = addStep(2)
+        stepNode.status = SOLVED
+        assertEquals(UNCHECKED, statusOf(lessonNode))
+
+        secondStep.status = SOLVED
+        assertEquals(SOLVED, statusOf(lessonNode))
+        assertEquals(SOLVED, statusOf(sectionNode))
+        assertEquals(SOLVED, statusOf(courseNode))
+    }
+
+    @Test
+    fun unknownChildKeepsParentStatus() {
+        val secondStep = addStep(2)
+        stepNode.status = SOLVED
+        secondStep.status = SOLVED
+        assertEquals(SOLVED, statusOf(lessonNode))
+
+        secondStep.status = UNCHECKED
+        assertEquals(SOLVED, statusOf(lessonNode))
+        assertEquals(SOLVED, statusOf(sectionNode))
+    }
+
+    @Test
+    fun solvedStepWithUnknownSiblingsKeepsAncestors() {
+        lessonNode.statusChecked(false)
+        sectionNode.statusChecked(false)
+        addStep(2)
+
+        stepNode.status = SOLVED
+        assertEquals(FAILED, statusOf(lessonNode))
+        assertEquals(FAILED, statusOf(sectionNode))
+    }
+
+    @Test
+    fun failedChildRevalidatesSolvedParent() {
+        val secondStep = addStep(2)
+        stepNode.status = SOLVED
+        lessonNode.status = SOLVED
+
+        secondStep.status = FAILED
+        assertEquals(UNCHECKED, statusOf(lessonNode))
+    }
+
+    @Test
+    fun checkedStatusesReachParents() {
+        val secondStep = addStep(2)
+        stepNode.statusChecked(true)
+        assertEquals(UNCHECKED, statusOf(lessonNode))
+
+        secondStep.statusChecked(true)
+        assertEquals(SOLVED, statusOf(lessonNode))
+        assertEquals(SOLVED, statusOf(sectionNode))
+        assertEquals(SOLVED, statusOf(courseNode))
+    }
+
+    @Test
+    fun adaptiveParentStaysUnchecked() {
+        courseNode.data.isAdaptive = true
+        stepNode.status = SOLVED
+        assertEquals(UNCHECKED, statusOf(lessonNode))
+        assertEquals(UNCHECKED, statusOf(sectionNode))
+    }
+
+    @Test
+    fun indexesFollowSetChildren() {
+        assertSame(stepNode, lessonNode.getChildById(1))
+        assertSame(stepNode, courseNode.getChildByClassAndId(StepNode::class.java, 1))
+
+        val secondStep = StepNode()
+        secondStep.id = 2
+        secondStep.data.position = 3
+        secondStep.parent = lessonNode
+        lessonNode.setChildren(listOf(secondStep))
+
+        assertNull(lessonNode.getChildById(1))
+        assertSame(secondStep, lessonNode.getChildById(2))
+        assertSame(secondStep, lessonNode.getChildByPosition(3))
+        assertNull(courseNode.getChildByClassAndId(StepNode::class.java, 1))
+        assertSame(secondStep, courseNode.getChildByClassAndId(StepNode::class.java, 2))
+        assertSame(secondStep, sectionNode.getChildByClassAndId(StepNode::class.java, 2))
+    }
+
+    private fun addStep(id: Long): StepNode {
+        val step = StepNode()
+        step.id = id
+        step.parent = lessonNode
+        lessonNode.setChildren(lessonNode.children + step)
+        return step
+    }
+
+    /**
+     * Reads a status without requesting progresses of unknown statuses
+     */
+    private fun statusOf(node: Node): StudyStatus {
+        node.startStatusCheck()
+        return node.status
+    }
 }
@@ -0,0 +1,85 @@
+package org.stepik.api.client
+
+/**
+ * Pages of API objects shaped like responses of stepik.org, generated for a given size
+ */
+object BenchmarkPages {
+    private const val META = """{"page":1,"has_next":true,"has_previous":false}"""
+    private const val CODE = """//class Main {\n    //Stepik code: start\npublic class Main{\n    """ +
+            """public static void main(String[] args){\n        System.out.println(\"It's alive!\");\n""" +
+            """    }\n}\n//Stepik code: end\n//}"""
+    
+    fun courses(ids: List<Long>) = page("courses", ids) { course(it) }
+    
+    fun steps(ids: List<Long>) = page("steps", ids) { step(it) }
+    
+    fun submissions(ids: List<Long>) = page("submissions", ids) { submission(it) }
+    
+    fun attempts(ids: List<Long>) = page("attempts", ids) { attempt(it) }
+    
+    fun ids(size: Int) = (1L..size).toList()
+    
+    private fun page(name: String, ids: List<Long>, item: (Long) -> String): String {
+        return """{"meta":$META,"$name":[${ids.joinToString(",") { item(it) }}]}"""
+    }
+    
+    private fun course(id: Long): String {
+        val sections = (id * 10 until id * 10 + 8).joinToString(",")
+        return """{"id":$id,"summary":"A course about programming in Java","workload":"3 hours a week",
+            |"cover":"/media/cache/images/courses/$id/cover.png","intro":"https://player.vimeo.com/$id",
+            |"course_format":"","target_audience":"Beginners","certificate_footer":null,
+            |"certificate_cover_org":null,"is_certificate_auto_issued":true,"certificate_regular_threshold":80,
+            |"certificate_distinction_threshold":95,"instructors":[1,2],"certificate":"",
+            |"requirements":"","description":"<p>A long description of a course $id</p>",
+            |"sections":[$sections],"total_units":40,"enrollment":1,"is_favorite":false,
+            |"actions":{"view_grade_book":"#"},"progress":"78-$id","first_deadline":null,
+            |"last_deadline":null,"subscriptions":["31-77-$id"],"announcements":[],"is_contest":false,
+            |"is_self_paced":true,"is_idea_compatible":true,"last_step":"$id-1","intro_video":null,
+            |"social_providers":[],"authors":[1],"tags":[1,2,3],"has_tutors":false,"is_adaptive":false,
+            |"owner":1,"language":"ru","is_featured":false,"is_public":true,"title":"Course $id",
+            |"slug":"course-$id","begin_date":null,"end_date":null,"soft_deadline":null,"hard_deadline":null,
+            |"grading_policy":"halved","begin_date_source":null,"end_date_source":null,
+            |"soft_deadline_source":null,"hard_deadline_source":null,"grading_policy_source":null,
+            |"is_active":true,"create_date":"2016-03-11T09:54:12Z","update_date":"2018-02-26T05:46:28Z",
+            |"learners_group":null,"testers_group":null,"moderators_group":null,"teachers_group":null,
+            |"admins_group":null,"discussions_count":0,"discussion_proxy":null,"discussion_threads":[]}"""
+                .trimMargin()
+    }
+    
+    private fun step(id: Long): String {
+        val block = if (id % 4 == 0L) {
+            """{"name":"code","text":"<p>Write a program which prints a line</p>","video":null,
+                |"animation":null,"options":{"execution_time_limit":5,"execution_memory_limit":256,
+                |"limits":{"java8":{"time":8,"memory":256}},"code_templates":{"java8":"$CODE"},
+                |"samples":[["","It's alive!"]]},"subtitle_files":[]}""".trimMargin()
+        } else {
+            """{"name":"text","text":"<p>A text of a step $id with <b>markup</b> and a long paragraph</p>",
+                |"video":null,"animation":null,"options":{},"subtitle_files":[]}""".trimMargin()
+        }
+        return """{"id":$id,"lesson":${id / 10 + 1},"position":${id % 10 + 1},"status":"ready","block":$block,
+            |"actions":{"submit":"#"},"progress":"77-$id","subscriptions":["31-77-$id"],"instruction":null,
+            |"session":null,"instruction_type":null,"viewed_by":1200,"passed_by":900,
+            |"correct_ratio":0.65,"worth":1,"is_solutions_unlocked":false,"solutions_unlocked_attempts":3,
+            |"has_submissions_restrictions":false,"max_submissions_count":3,"variation":1,
+            |"variations_count":1,"create_date":"2016-03-11T09:54:12Z",
+            |"update_date":"2018-02-26T05:46:28Z","discussions_count":2,"discussion_proxy":"77-$id-1",
+            |"discussion_threads":["77-$id-1"]}""".trimMargin()
+    }
+    
+    private fun submission(id: Long): String {
+        val time = String.format("2018-%02d-%02dT%02d:%02d:%02dZ",
+                id % 12 + 1, id % 28 + 1, id % 24, id % 60, id % 60)
+        return """{"id":$id,"status":"correct","score":1.0,
+            |"hint":"Your code complexity score is 1.41 (best for this step is 1.0).\n",
+            |"feedback":{"message":"Your code complexity score is 1.41.\n","data":{}},"time":"$time",
+            |"reply":{"language":"java8","code":"$CODE"},"reply_url":null,"attempt":$id,
+            |"session":null,"eta":0}""".trimMargin()
+    }
+    
+    private fun attempt(id: Long): String {
+        return """{"id":$id,"dataset":{"is_multiple_choice":false,"options":["First","Second","Third"],
+            |"is_text_disabled":false,"pairs":[],"rows":[],"columns":[],"is_checkbox":false,
+            |"description":"","components":[]},"dataset_url":null,"time":"2018-02-26T05:46:28Z",
+            |"status":"active","time_left":null,"step":$id,"user":1}""".trimMargin()
+    }
+}
@@ -0,0 +1,69 @@
+package org.stepik.api.client
+
+import java.io.ByteArrayInputStream
+import java.net.URLDecoder
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Answers every GET request with a page of steps for requested ids without a network,
+ * so a benchmark measures only the client. A last requested url is kept in [lastUrl].
+ */
+class CannedTransportClient : TransportClient {
+    val lastUrl = AtomicReference<String>()
+    
+    override fun post(stepikApiClient: StepikApiClient, url: String, body: String?): ClientResponse {
+        return post(stepikApiClient, url, body, null)
+    }
+    
+    override fun get(stepikApiClient: StepikApiClient, url: String): ClientResponse {
+        return get(stepikApiClient, url, null)
+    }
+    
+    override fun post(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): ClientResponse {
+        return postStream(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun get(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): ClientResponse {
+        return getStream(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun <R> getStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        lastUrl.set(url)
+        val page = BenchmarkPages.steps(ids(url))
+        return handler(StreamResponse(stepikApiClient, 200, ByteArrayInputStream(page.toByteArray(UTF_8))))
+    }
+    
+    override fun <R> postStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        lastUrl.set(url)
+        val content = ByteArrayInputStream("""{"detail":"Method not allowed"}""".toByteArray(UTF_8))
+        return handler(StreamResponse(stepikApiClient, 405, content))
+    }
+    
+    private fun ids(url: String): List<Long> {
+        val query = url.substringAfter('?', "")
+        if (query.isEmpty()) {
+            return listOfNotNull(url.substringAfterLast('/').toLongOrNull())
+        }
+        return query.split('&')
+                .map { URLDecoder.decode(it, "UTF-8") }
+                .filter { it.startsWith("ids[]=") }
+                .mapNotNull { it.substringAfter('=').toLongOrNull() }
+    }
+}
@@ -0,0 +1,35 @@
+package org.stepik.api.client.serialization
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import java.util.*
+import java.util.concurrent.TimeUnit.NANOSECONDS
+
+/**
+ * Measures parsing and formatting of API dates by many threads at once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+open class IsoDateCodecBenchmark {
+    private val text = "2018-02-26T05:46:28Z"
+    private val date = Date(1519623988000L)
+    
+    @Benchmark
+    fun parse() = IsoDateCodec.parse(text)
+    
+    @Benchmark
+    fun format() = IsoDateCodec.format(date)
+}
@@ -0,0 +1,72 @@
+package org.stepik.api.client.serialization
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.stepik.api.client.BenchmarkPages
+import org.stepik.api.objects.attempts.Attempts
+import org.stepik.api.objects.courses.Courses
+import org.stepik.api.objects.steps.Steps
+import org.stepik.api.objects.submissions.Submissions
+import java.util.concurrent.TimeUnit.MICROSECONDS
+
+/**
+ * Measures [DefaultJsonConverter.fromJson] for pages of a size of an API page (20) and of a long list (100),
+ * with streaming adapters and with reflection
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class JsonConverterBenchmark {
+    @Param("20", "100")
+    @JvmField
+    var pageSize = 0
+    
+    @Param("true", "false")
+    @JvmField
+    var streaming = true
+    
+    private lateinit var courses: String
+    private lateinit var steps: String
+    private lateinit var submissions: String
+    private lateinit var attempts: String
+    
+    @Setup
+    fun setUp() {
+        val ids = BenchmarkPages.ids(pageSize)
+        courses = BenchmarkPages.courses(ids)
+        steps = BenchmarkPages.steps(ids)
+        submissions = BenchmarkPages.submissions(ids)
+        attempts = BenchmarkPages.attempts(ids)
+        DefaultJsonConverter.isStreamingAdaptersEnabled = streaming
+    }
+    
+    @TearDown
+    fun tearDown() {
+        DefaultJsonConverter.isStreamingAdaptersEnabled = true
+    }
+    
+    @Benchmark
+    fun courses() = DefaultJsonConverter.fromJson(courses, Courses::class.java)
+    
+    @Benchmark
+    fun steps() = DefaultJsonConverter.fromJson(steps, Steps::class.java)
+    
+    @Benchmark
+    fun submissions() = DefaultJsonConverter.fromJson(submissions, Submissions::class.java)
+    
+    @Benchmark
+    fun attempts() = DefaultJsonConverter.fromJson(attempts, Attempts::class.java)
+}
@@ -0,0 +1,110 @@
+package org.stepik.api.queries
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.stepik.api.client.BenchmarkPages
+import org.stepik.api.client.CannedTransportClient
+import org.stepik.api.client.StepikApiClient
+import org.stepik.api.client.cache.FileCacheStore
+import org.stepik.api.client.cache.ObjectCache
+import org.stepik.api.client.cache.SegmentedCacheStore
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit.MICROSECONDS
+
+/**
+ * Measures cache reads and writes of [StepikAbstractGetQuery] for a page of 20 steps.
+ *
+ * A read is served by the cache store with the object cache turned off or by the object cache;
+ * a write is a query whose objects are loaded and stored followed by their removal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class CacheBenchmark {
+    @Param("segmented", "files")
+    @JvmField
+    var store = "segmented"
+    
+    private lateinit var directory: Path
+    private lateinit var ids: List<Long>
+    private lateinit var stepikApiClient: StepikApiClient
+    private lateinit var objectCachedClient: StepikApiClient
+    private lateinit var writingClient: StepikApiClient
+    private var segmentedStore: SegmentedCacheStore? = null
+    
+    @Setup
+    fun setUp() {
+        directory = Files.createTempDirectory("cache-benchmark")
+        ids = BenchmarkPages.ids(20)
+        
+        stepikApiClient = client()
+        stepikApiClient.objectCache = ObjectCache(0)
+        stepikApiClient.steps().get().id(ids).execute()
+        
+        objectCachedClient = client()
+        objectCachedClient.cacheStore = stepikApiClient.cacheStore
+        objectCachedClient.steps().get().id(ids).execute()
+        
+        writingClient = client()
+        writingClient.cacheStore = stepikApiClient.cacheStore
+        writingClient.objectCache = ObjectCache(0)
+        writingClient.isCacheRevalidationEnabled = false
+    }
+    
+    @TearDown
+    fun tearDown() {
+        segmentedStore?.close()
+        directory.toFile().deleteRecursively()
+    }
+    
+    @Benchmark
+    fun storeRead() = stepikApiClient.steps()
+            .get()
+            .id(ids)
+            .execute()
+    
+    @Benchmark
+    fun objectCacheRead() = objectCachedClient.steps()
+            .get()
+            .id(ids)
+            .execute()
+    
+    @Benchmark
+    fun write() {
+        // Entries are removed after a query, so every query loads and stores all objects again
+        writingClient.steps()
+                .get()
+                .id(ids)
+                .execute()
+        ids.forEach { writingClient.cacheStore.remove("steps", it.toString()) }
+    }
+    
+    private fun client(): StepikApiClient {
+        val client = StepikApiClient(CannedTransportClient(), "https://stepik.org")
+        client.cachePath = directory
+        client.isQueryCacheEnabled = false
+        client.isRequestCoalescingEnabled = false
+        if (store == "files") {
+            client.cacheStore = FileCacheStore(directory.resolve("files"))
+        } else {
+            val segments = segmentedStore ?: SegmentedCacheStore(directory.resolve("segments"))
+            segmentedStore = segments
+            client.cacheStore = segments
+        }
+        return client
+    }
+}
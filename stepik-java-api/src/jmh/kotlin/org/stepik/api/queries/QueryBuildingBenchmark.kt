@@ -0,0 +1,67 @@
+package org.stepik.api.queries
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.stepik.api.Utils
+import org.stepik.api.client.BenchmarkPages
+import org.stepik.api.client.CannedTransportClient
+import org.stepik.api.client.StepikApiClient
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit.MICROSECONDS
+
+/**
+ * Measures building of query parameters and a whole GET query without a network and a cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class QueryBuildingBenchmark {
+    @Param("1", "20")
+    @JvmField
+    var idsCount = 0
+    
+    private lateinit var ids: List<Long>
+    private lateinit var idStrings: List<String>
+    private lateinit var stepikApiClient: StepikApiClient
+    private lateinit var directory: Path
+    
+    @Setup
+    fun setUp() {
+        ids = BenchmarkPages.ids(idsCount)
+        idStrings = ids.map { it.toString() }
+        stepikApiClient = StepikApiClient(CannedTransportClient(), "https://stepik.org")
+        directory = Files.createTempDirectory("query-benchmark")
+        stepikApiClient.cachePath = directory
+        stepikApiClient.isCacheEnabled = false
+        stepikApiClient.isQueryCacheEnabled = false
+        stepikApiClient.isRequestCoalescingEnabled = false
+    }
+    
+    @TearDown
+    fun tearDown() {
+        directory.toFile().deleteRecursively()
+    }
+    
+    @Benchmark
+    fun mapToGetString() = Utils.mapToGetString("ids[]", idStrings)
+    
+    @Benchmark
+    fun stepsQuery() = stepikApiClient.steps()
+            .get()
+            .id(ids)
+            .execute()
+}
@@ -1,30 +1,49 @@
 package org.stepik.api.queries;
 
 import com.google.gson.JsonSyntaxException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.utils.DateUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.stepik.api.Utils;
 import org.stepik.api.actions.StepikAbstractAction;
+import org.stepik.api.client.InFlightRequests;
+import org.stepik.api.client.ServerClock;
 import org.stepik.api.client.StepikApiClient;
+import org.stepik.api.client.cache.CacheEntry;
+import org.stepik.api.client.cache.CacheStore;
+import org.stepik.api.client.cache.ObjectCache;
+import org.stepik.api.client.cache.QueryCache;
 import org.stepik.api.exceptions.StepikClientException;
 import org.stepik.api.objects.AbstractObject;
 import org.stepik.api.objects.AbstractObjectWithStringId;
+import org.stepik.api.objects.Meta;
 import org.stepik.api.objects.ObjectsContainer;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author meanmail
  */
 public abstract class StepikAbstractGetQuery<T extends StepikAbstractGetQuery, R extends ObjectsContainer> extends StepikAbstractQuery<R> {
-    private static final String JSON_EXTENSION = ".json";
+    private static final String PAGE_KEY = "page";
+    /**
+     * Stale entries are revalidated since a second before they were cached, a response is cached a bit later
+     * than the server sends it
+     */
+    private static final long REVALIDATION_MARGIN = 1000;
 
     protected StepikAbstractGetQuery(@NotNull StepikAbstractAction stepikAction, @NotNull Class<R> responseClass) {
         super(stepikAction, responseClass, QueryMethod.GET);
@@ -75,92 +94,664 @@ public abstract class StepikAbstractGetQuery<T extends StepikAbstractGetQuery, R
         return 5 * 60 * 1000;
     }
 
+    /**
+     * A life time of results of queries without ids; zero disables caching of results
+     */
+    protected long getQueryCacheLifeTime() {
+        return 0;
+    }
+
     @NotNull
     @Override
     public R execute() {
+        if (getParam(IDS_KEY).isEmpty()) {
+            if (!isQueryCacheUsed()) {
+                return super.execute();
+            }
+
+            String key = getQueryCacheKey();
+            R cached = readQueryCache(key);
+            return cached != null ? cached : putQueryCache(key, super.execute());
+        }
+        return Utils.INSTANCE.await(execute(false));
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<R> executeAsync() {
+        if (getParam(IDS_KEY).isEmpty()) {
+            if (!isQueryCacheUsed()) {
+                return super.executeAsync();
+            }
+
+            String key = getQueryCacheKey();
+            R cached = readQueryCache(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            return super.executeAsync().thenApply(items -> putQueryCache(key, items));
+        }
+        return execute(true);
+    }
+
+    /**
+     * Iterates over pages starting with the page of the query.
+     * Close the iterator to stop loading if the rest of pages is not needed.
+     */
+    @NotNull
+    public PageIterator<R> pages() {
+        List<String> page = getParam(PAGE_KEY);
+        int firstPage = page.isEmpty() ? 1 : Integer.parseInt(page.get(0));
+        return new PageIterator<>(firstPage, this::startPage);
+    }
+
+    @NotNull
+    private synchronized CompletableFuture<R> startPage(int page) {
+        addParam(PAGE_KEY, page);
+        return executeAsync();
+    }
+
+    /**
+     * Only revalidation sends conditional requests. A chunk which is not modified is {@code null},
+     * so this marker can't be modified or confused with a response shared by coalesced queries.
+     */
+    @Nullable
+    @Override
+    protected R notModified(@NotNull String url) {
+        return null;
+    }
+
+    /**
+     * Copies the container and its meta, objects are shared like cached ones
+     */
+    @Nullable
+    @Override
+    protected R copyShared(@Nullable R items) {
+        if (items == null) {
+            return null;
+        }
+
+        R copy = newResponse();
+        Meta meta = items.getMeta();
+        //noinspection unchecked
+        copy.setMeta(new Meta(meta.getPage(), meta.getHasNext(), meta.getHasPrevious(), meta.getCount()));
+        //noinspection unchecked
+        copy.getItems().addAll(items.getItems());
+        return copy;
+    }
+
+    /**
+     * Loads objects for ids in chunks and returns them in the order of ids.
+     * The sync variant runs a single chunk on the calling thread.
+     */
+    @NotNull
+    private CompletableFuture<R> execute(boolean async) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(getParam(IDS_KEY)));
+
+        CompletableFuture<R> result;
+        if (isCacheUsed()) {
+            result = executeCached(ids, async);
+        } else {
+            result = load(split(ids), null, async).thenApply(this::merge);
+        }
+
+        return result.thenApply(items -> sortByIds(items, ids));
+    }
+
+    /**
+     * Stale objects are revalidated while missing ones are loaded
+     */
+    @NotNull
+    private CompletableFuture<R> executeCached(@NotNull List<String> ids, boolean async) {
+        CacheStore cacheStore = getStepikAction().getStepikApiClient().getCacheStore();
+        R items = newResponse();
+        CacheLookup lookup = readCached(cacheStore, items, ids);
+        int misses = lookup.missing.size() + lookup.staleItems.size();
+        cacheLookedUp(ids.size() - misses, misses);
+
+        CompletableFuture<R> result = CompletableFuture.completedFuture(items);
+        if (!lookup.staleItems.isEmpty()) {
+            boolean parallel = async || !lookup.missing.isEmpty();
+            result = result.thenCombine(revalidate(cacheStore, items, lookup, parallel), this::addAll);
+        }
+        if (!lookup.missing.isEmpty()) {
+            result = result.thenCombine(loadMissing(cacheStore, items, lookup.missing, async), this::addAll);
+        }
+
+        return result;
+    }
+
+    @NotNull
+    private R addAll(@NotNull R items, @NotNull List<Object> loaded) {
+        //noinspection unchecked
+        items.getItems().addAll(loaded);
+        return items;
+    }
+
+    @NotNull
+    private CompletableFuture<List<Object>> loadMissing(
+            @NotNull CacheStore cacheStore,
+            @NotNull R items,
+            @NotNull List<String> ids,
+            boolean async) {
+        IdClaims claims = claim(ids);
+        CompletableFuture<List<Object>> result = CompletableFuture.completedFuture(new ArrayList<>());
+        if (!claims.owned.isEmpty()) {
+            result = load(split(new ArrayList<>(claims.owned.keySet())), null, async)
+                    .thenApply(loaded -> {
+                        List<Object> loadedItems = new ArrayList<>();
+                        loaded.forEach(chunk -> loadedItems.addAll(mergeLoaded(cacheStore, items, chunk)));
+                        return loadedItems;
+                    })
+                    .whenComplete(claims::release);
+        }
+        return withBorrowed(claims, result);
+    }
+
+    private boolean isCacheUsed() {
         StepikApiClient stepikApiClient = getStepikAction().getStepikApiClient();
+        return isCacheEnabled() && stepikApiClient.isCacheEnabled();
+    }
 
-        if (!isCacheEnabled() || !stepikApiClient.isCacheEnabled()) {
-            return super.execute();
+    private boolean isQueryCacheUsed() {
+        StepikApiClient stepikApiClient = getStepikAction().getStepikApiClient();
+        return isCacheUsed() && stepikApiClient.isQueryCacheEnabled() && getQueryCacheLifeTime() > 0;
+    }
+
+    @NotNull
+    private String getQueryCacheKey() {
+        return getCacheSubdirectory() + " " + getAuthorization() + " " + getNormalizedParams();
+    }
+
+    /**
+     * Returns a cached result if all its objects are cached and fresh
+     */
+    @Nullable
+    private R readQueryCache(@NotNull String key) {
+        StepikApiClient stepikApiClient = getStepikAction().getStepikApiClient();
+        QueryCache.Entry entry = stepikApiClient.getQueryCache().get(key, getQueryCacheLifeTime());
+        if (entry == null) {
+            return null;
         }
 
-        List<String> ids = getParam(IDS_KEY);
+        R items = newResponse();
+        CacheLookup lookup = readCached(stepikApiClient.getCacheStore(), items, entry.getIds());
+        if (!lookup.missing.isEmpty() || !lookup.staleItems.isEmpty()) {
+            return null;
+        }
 
-        if (ids.isEmpty()) {
-            return super.execute();
+        //noinspection unchecked
+        items.setMeta(entry.getMeta());
+        cacheLookedUp(entry.getIds().size(), 0);
+        return items;
+    }
+
+    @NotNull
+    private R putQueryCache(@NotNull String key, @NotNull R items) {
+        StepikApiClient stepikApiClient = getStepikAction().getStepikApiClient();
+        CacheStore cacheStore = stepikApiClient.getCacheStore();
+        ObjectCache objectCache = stepikApiClient.getObjectCache();
+        String region = getCacheSubdirectory();
+
+        List<String> ids = new ArrayList<>();
+        for (Object item : items.getItems()) {
+            String id = getItemId(item);
+            if (id == null) {
+                return items;
+            }
+            ids.add(id);
+            flushCourse(item, cacheStore, objectCache, region, items.getItemClass());
         }
 
-        Path cachePath = stepikApiClient.getCachePath();
-        Path courseCache = cachePath.resolve(getCacheSubdirectory());
+        stepikApiClient.getQueryCache().put(key, ids, items.getMeta());
+        return items;
+    }
 
-        R items;
+    @NotNull
+    private R newResponse() {
         try {
-            items = getResponseClass().newInstance();
+            return getResponseClass().newInstance();
         } catch (InstantiationException | IllegalAccessException e) {
             throw new StepikClientException("Can't create a new instance for a response class", e);
         }
+    }
 
-        List<String> idsForQuery;
-
-        if (Files.exists(courseCache)) {
-            idsForQuery = new ArrayList<>();
-            for (String id : ids) {
-                Path file = courseCache.resolve(id + JSON_EXTENSION);
-                if (Files.exists(file)) {
-                    long updateFileTime = file.toFile().lastModified();
-                    long currentTime = new Date().getTime();
-
-                    long diff = currentTime - updateFileTime;
-                    if (diff > 0 && diff <= getCacheLifeTime()) {
-                        Object item = null;
-                        try {
-                            String text = Utils.INSTANCE.readFile(file.toFile());
-                            //noinspection unchecked
-                            item = getJsonConverter().fromJson(text, items.getItemClass());
-                        } catch (JsonSyntaxException ignored) {
-                        }
-                        if (item != null) {
-                            //noinspection unchecked
-                            items.getItems().add(item);
-                            continue;
-                        }
-                    }
-                }
+    @NotNull
+    private List<List<String>> split(@NotNull List<String> ids) {
+        int chunkSize = Math.max(1, getStepikAction().getStepikApiClient().getIdsChunkSize());
+        List<List<String>> chunks = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += chunkSize) {
+            chunks.add(ids.subList(start, Math.min(start + chunkSize, ids.size())));
+        }
+        return chunks;
+    }
 
-                idsForQuery.add(id);
+    /**
+     * Requests chunks concurrently, but no more than {@link StepikApiClient#getIdsParallelism()} at once.
+     * Results are in the order of chunks. A chunk is requested with {@code If-Modified-Since} of its validator.
+     */
+    @NotNull
+    private CompletableFuture<List<R>> load(
+            @NotNull List<List<String>> chunks,
+            @Nullable List<String> validators,
+            boolean async) {
+        if (chunks.size() == 1 && !async) {
+            try {
+                return CompletableFuture.completedFuture(
+                        Collections.singletonList(executeChunk(chunks.get(0), validator(validators, 0))));
+            } catch (RuntimeException e) {
+                CompletableFuture<List<R>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
             }
+        }
+
+        int parallelism = Math.max(1, getStepikAction().getStepikApiClient().getIdsParallelism());
+        List<R> results = Collections.synchronizedList(new ArrayList<>(Collections.nCopies(chunks.size(), null)));
+        AtomicInteger next = new AtomicInteger();
+
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(parallelism, chunks.size())];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = loadLane(chunks, validators, next, results);
+        }
+
+        return CompletableFuture.allOf(lanes).thenApply(ignored -> new ArrayList<>(results));
+    }
+
+    @NotNull
+    private CompletableFuture<Void> loadLane(
+            @NotNull List<List<String>> chunks,
+            @Nullable List<String> validators,
+            @NotNull AtomicInteger next,
+            @NotNull List<R> results) {
+        int index = next.getAndIncrement();
+        if (index >= chunks.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return startChunk(chunks.get(index), validator(validators, index)).thenCompose(loadedItems -> {
+            results.set(index, loadedItems);
+            return loadLane(chunks, validators, next, results);
+        });
+    }
+
+    @Nullable
+    private static String validator(@Nullable List<String> validators, int index) {
+        return validators != null ? validators.get(index) : null;
+    }
+
+    /**
+     * Requests all pages of a chunk, a server can return fewer objects on a page than ids in a chunk.
+     * Returns {@code null} if the chunk is not modified; once the first page is modified, the next ones are
+     * requested unconditionally.
+     */
+    @Nullable
+    private R executeChunk(@NotNull List<String> ids, @Nullable String ifModifiedSince) {
+        R items = executeChunkPage(ids, ifModifiedSince, 1);
+        if (items == null) {
+            return null;
+        }
+
+        R last = items;
+        for (int page = 2; last.getMeta().getHasNext(); page++) {
+            last = executeChunkPage(ids, null, page);
+            appendPage(items, last);
+        }
+        return items;
+    }
+
+    @NotNull
+    private CompletableFuture<R> startChunk(@NotNull List<String> ids, @Nullable String ifModifiedSince) {
+        return startChunkPage(ids, ifModifiedSince, 1)
+                .thenCompose(items -> items != null ? startNextPages(ids, items, items, 2) : completedNull());
+    }
+
+    @NotNull
+    private CompletableFuture<R> completedNull() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @NotNull
+    private CompletableFuture<R> startNextPages(
+            @NotNull List<String> ids,
+            @NotNull R items,
+            @NotNull R last,
+            int page) {
+        if (!last.getMeta().getHasNext()) {
+            return CompletableFuture.completedFuture(items);
+        }
+
+        return startChunkPage(ids, null, page).thenCompose(next -> {
+            appendPage(items, next);
+            return startNextPages(ids, items, next, page + 1);
+        });
+    }
+
+    private void appendPage(@NotNull R items, @NotNull R page) {
+        //noinspection unchecked
+        items.getItems().addAll(page.getItems());
+        items.setMeta(page.getMeta());
+    }
+
+    @Nullable
+    private synchronized R executeChunkPage(@NotNull List<String> ids, @Nullable String ifModifiedSince, int page) {
+        List<String> queryIds = getParam(IDS_KEY);
+        List<String> queryPage = getParam(PAGE_KEY);
+        try {
+            setChunk(ids, ifModifiedSince, page);
+            return super.execute();
+        } finally {
+            restoreQuery(queryIds, queryPage);
+        }
+    }
+
+    @NotNull
+    private synchronized CompletableFuture<R> startChunkPage(
+            @NotNull List<String> ids,
+            @Nullable String ifModifiedSince,
+            int page) {
+        List<String> queryIds = getParam(IDS_KEY);
+        List<String> queryPage = getParam(PAGE_KEY);
+        try {
+            setChunk(ids, ifModifiedSince, page);
+            return super.executeAsync();
+        } finally {
+            restoreQuery(queryIds, queryPage);
+        }
+    }
+
+    private void setChunk(@NotNull List<String> ids, @Nullable String ifModifiedSince, int page) {
+        id(ids);
+        setHeader(HttpHeaders.IF_MODIFIED_SINCE, ifModifiedSince);
+        if (page > 1) {
+            addParam(PAGE_KEY, page);
+        } else {
+            removeParam(PAGE_KEY);
+        }
+    }
+
+    private void restoreQuery(@NotNull List<String> queryIds, @NotNull List<String> queryPage) {
+        id(queryIds);
+        setHeader(HttpHeaders.IF_MODIFIED_SINCE, null);
+        if (queryPage.isEmpty()) {
+            removeParam(PAGE_KEY);
         } else {
-            idsForQuery = ids;
+            addParam(PAGE_KEY, queryPage);
         }
-        if (!idsForQuery.isEmpty()) {
-            id(idsForQuery);
-            R loadedItems = super.execute();
-//            noinspection unchecked
-            loadedItems.forEach((item) -> flushCourse(item, courseCache));
-            //noinspection unchecked
-            items.getItems().addAll(loadedItems.getItems());
+    }
+
+    @NotNull
+    private R merge(@NotNull List<R> loaded) {
+        if (loaded.size() == 1) {
+            return loaded.get(0);
         }
 
+        R items = newResponse();
+        //noinspection unchecked
+        loaded.forEach(loadedItems -> items.getItems().addAll(loadedItems.getItems()));
         return items;
     }
 
-    private void flushCourse(Object item, Path cachePath) {
-        String id;
+    @NotNull
+    private R sortByIds(@NotNull R items, @NotNull List<String> ids) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+
+        //noinspection unchecked
+        List<Object> sortedItems = items.getItems();
+        sortedItems.sort(Comparator.comparingInt(item -> positions.getOrDefault(getItemId(item), ids.size())));
+        return items;
+    }
+
+    /**
+     * Adds fresh cached items to {@code items} and returns ids which must be requested.
+     * Looks up the object cache first and then the cache store.
+     * Expired entries are returned as stale if the revalidation is enabled.
+     */
+    @NotNull
+    private CacheLookup readCached(@NotNull CacheStore cacheStore, @NotNull R items, @NotNull List<String> ids) {
+        StepikApiClient stepikApiClient = getStepikAction().getStepikApiClient();
+        String region = getCacheSubdirectory();
+        ObjectCache objectCache = stepikApiClient.getObjectCache();
+        boolean revalidation = stepikApiClient.isCacheRevalidationEnabled();
+        Class<?> itemClass = items.getItemClass();
+        long cacheLifeTime = getCacheLifeTime();
+
+        CacheLookup lookup = new CacheLookup();
+        for (String id : ids) {
+            Object item = objectCache.get(itemClass, id, cacheLifeTime);
+            if (item != null) {
+                //noinspection unchecked
+                items.getItems().add(item);
+                continue;
+            }
+
+            CacheEntry entry = cacheStore.get(region, id);
+            if (entry != null) {
+                long currentTime = new Date().getTime();
+
+                long diff = currentTime - entry.getUpdateTime();
+                boolean fresh = diff > 0 && diff <= cacheLifeTime;
+                if (fresh || revalidation) {
+                    try {
+                        item = getJsonConverter().fromJson(entry.getContent(), itemClass);
+                    } catch (JsonSyntaxException ignored) {
+                    }
+                }
+                if (item != null) {
+                    if (fresh) {
+                        objectCache.put(itemClass, id, item, entry.getContent().length(), entry.getUpdateTime());
+                        //noinspection unchecked
+                        items.getItems().add(item);
+                    } else {
+                        lookup.addStale(id, item, entry);
+                    }
+                    continue;
+                }
+            }
+
+            lookup.missing.add(id);
+        }
+
+        return lookup;
+    }
+
+    /**
+     * Asks only for objects which were modified after stale entries were cached.
+     * Stale ids are split into chunks from the oldest entries, every chunk is asked since its oldest entry
+     * in time of the server. Chunks answered with Not Modified reuse cached objects.
+     * Without a known server time stale objects are requested unconditionally.
+     */
+    @NotNull
+    private CompletableFuture<List<Object>> revalidate(
+            @NotNull CacheStore cacheStore,
+            @NotNull R items,
+            @NotNull CacheLookup lookup,
+            boolean async) {
+        IdClaims claims = claim(new ArrayList<>(lookup.staleItems.keySet()));
+        if (claims.owned.isEmpty()) {
+            return withBorrowed(claims, CompletableFuture.completedFuture(new ArrayList<>()));
+        }
+
+        List<String> ids = new ArrayList<>(claims.owned.keySet());
+        ids.sort(Comparator.comparingLong(lookup.staleTimes::get));
+        List<List<String>> chunks = split(ids);
+
+        ServerClock serverClock = getStepikAction().getStepikApiClient().getServerClock();
+        List<String> validators = new ArrayList<>();
+        for (List<String> chunk : chunks) {
+            Long since = serverClock.toServerTime(lookup.staleTimes.get(chunk.get(0)));
+            validators.add(since != null ? DateUtils.formatDate(new Date(since - REVALIDATION_MARGIN)) : null);
+        }
+
+        CompletableFuture<List<Object>> result = load(chunks, validators, async).thenApply(loaded -> {
+            List<Object> revalidated = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                R loadedItems = loaded.get(i);
+                if (loadedItems == null) {
+                    revalidated.addAll(reuseStale(cacheStore, items, lookup, chunks.get(i)));
+                } else {
+                    revalidated.addAll(mergeLoaded(cacheStore, items, loadedItems));
+                }
+            }
+            return revalidated;
+        });
+        return withBorrowed(claims, result.whenComplete(claims::release));
+    }
+
+    @NotNull
+    private List<Object> reuseStale(
+            @NotNull CacheStore cacheStore,
+            @NotNull R items,
+            @NotNull CacheLookup lookup,
+            @NotNull List<String> ids) {
+        String region = getCacheSubdirectory();
+        ObjectCache objectCache = getStepikAction().getStepikApiClient().getObjectCache();
+        Class<?> itemClass = items.getItemClass();
+        List<Object> reused = new ArrayList<>();
+        for (String id : ids) {
+            String content = lookup.staleContents.get(id);
+            Object item = lookup.staleItems.get(id);
+            cacheStore.put(region, id, content);
+            objectCache.put(itemClass, id, item, content.length(), System.currentTimeMillis());
+            reused.add(item);
+        }
+        return reused;
+    }
+
+    /**
+     * Caches loaded objects and returns them
+     */
+    @NotNull
+    private List<Object> mergeLoaded(@NotNull CacheStore cacheStore, @NotNull R items, @NotNull R loadedItems) {
+        String region = getCacheSubdirectory();
+        ObjectCache objectCache = getStepikAction().getStepikApiClient().getObjectCache();
+        //noinspection unchecked
+        loadedItems.forEach((item) -> flushCourse(item, cacheStore, objectCache, region, items.getItemClass()));
+        //noinspection unchecked
+        return loadedItems.getItems();
+    }
+
+    /**
+     * Registers ids which no concurrent query is loading; the other ids are borrowed from their queries
+     */
+    @NotNull
+    private IdClaims claim(@NotNull List<String> ids) {
+        StepikApiClient stepikApiClient = getStepikAction().getStepikApiClient();
+        InFlightRequests inFlightRequests = stepikApiClient.getInFlightRequests();
+        boolean coalescing = stepikApiClient.isRequestCoalescingEnabled();
+        String keyPrefix = getCacheSubdirectory() + " " + getAuthorization() + " ";
+
+        IdClaims claims = new IdClaims(inFlightRequests);
+        for (String id : ids) {
+            CompletableFuture<Object> own = new CompletableFuture<>();
+            if (coalescing) {
+                String key = keyPrefix + id;
+                CompletableFuture<Object> other = inFlightRequests.claim(key, own);
+                if (other != null) {
+                    claims.borrowed.add(other);
+                    continue;
+                }
+                claims.keys.put(id, key);
+            }
+            claims.owned.put(id, own);
+        }
+
+        return claims;
+    }
+
+    /**
+     * Adds objects of borrowed ids to objects which are loaded by this query
+     */
+    @NotNull
+    private CompletableFuture<List<Object>> withBorrowed(
+            @NotNull IdClaims claims,
+            @NotNull CompletableFuture<List<Object>> loaded) {
+        if (claims.borrowed.isEmpty()) {
+            return loaded;
+        }
+
+        CompletableFuture<?>[] borrowed = claims.borrowed.toArray(new CompletableFuture<?>[0]);
+        return loaded.thenCombine(CompletableFuture.allOf(borrowed), (loadedItems, ignored) -> {
+            claims.borrowed.stream()
+                    .map(CompletableFuture::join)
+                    .filter(Objects::nonNull)
+                    .forEach(loadedItems::add);
+            return loadedItems;
+        });
+    }
+
+    @Nullable
+    private static String getItemId(Object item) {
         if (item instanceof AbstractObject) {
-            id = String.valueOf(((AbstractObject) item).getId());
+            return String.valueOf(((AbstractObject) item).getId());
         } else if (item instanceof AbstractObjectWithStringId) {
-            id = ((AbstractObjectWithStringId) item).getId();
-        } else {
+            return ((AbstractObjectWithStringId) item).getId();
+        }
+        return null;
+    }
+
+    private void flushCourse(
+            Object item,
+            @NotNull CacheStore cacheStore,
+            @NotNull ObjectCache objectCache,
+            @NotNull String region,
+            @NotNull Class<?> itemClass) {
+        String id = getItemId(item);
+        if (id == null) {
             return;
         }
 
-        Path courseCache = cachePath.resolve(id + JSON_EXTENSION);
+        String content = getJsonConverter().toJson(item, false);
+        cacheStore.put(region, id, content);
+        objectCache.put(itemClass, id, item, content.length(), System.currentTimeMillis());
+    }
 
-        try {
-            Files.createDirectories(courseCache.getParent());
-            byte[] content = getJsonConverter().toJson(item, false).getBytes(StandardCharsets.UTF_8);
-            Files.write(courseCache, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException ignored) {
+    private static class CacheLookup {
+        private final List<String> missing = new ArrayList<>();
+        private final Map<String, Object> staleItems = new LinkedHashMap<>();
+        private final Map<String, String> staleContents = new HashMap<>();
+        private final Map<String, Long> staleTimes = new HashMap<>();
+
+        private void addStale(@NotNull String id, @NotNull Object item, @NotNull CacheEntry entry) {
+            staleItems.put(id, item);
+            staleContents.put(id, entry.getContent());
+            staleTimes.put(id, entry.getUpdateTime());
+        }
+    }
+
+    private static class IdClaims {
+        private final InFlightRequests inFlightRequests;
+        private final Map<String, CompletableFuture<Object>> owned = new LinkedHashMap<>();
+        private final Map<String, String> keys = new HashMap<>();
+        private final List<CompletableFuture<Object>> borrowed = new ArrayList<>();
+
+        private IdClaims(@NotNull InFlightRequests inFlightRequests) {
+            this.inFlightRequests = inFlightRequests;
+        }
+
+        /**
+         * Completes owned ids with loaded items; ids which were not returned are completed with null
+         */
+        private void release(@Nullable List<Object> loadedItems, @Nullable Throwable error) {
+            Map<String, Object> loaded = new HashMap<>();
+            if (loadedItems != null) {
+                loadedItems.forEach(item -> loaded.put(getItemId(item), item));
+            }
+
+            owned.forEach((id, future) -> {
+                String key = keys.get(id);
+                if (key != null) {
+                    inFlightRequests.release(key, future);
+                }
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(loaded.get(id));
+                }
+            });
         }
     }
 }
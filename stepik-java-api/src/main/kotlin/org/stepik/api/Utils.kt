@@ -5,25 +5,21 @@ import com.google.gson.JsonElement
 import com.google.gson.JsonObject
 import com.google.gson.JsonPrimitive
 import org.slf4j.LoggerFactory
+import org.stepik.api.client.serialization.IsoDateCodec
+import org.stepik.api.exceptions.StepikClientException
 import java.io.File
 import java.io.IOException
 import java.io.UnsupportedEncodingException
 import java.net.URLEncoder
 import java.nio.charset.StandardCharsets.UTF_8
-import java.text.SimpleDateFormat
 import java.time.Instant
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
 
 object Utils {
     private val logger = LoggerFactory.getLogger(Utils::class.java)
     
-    val timeISOFormat by lazy {
-        val format = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'")
-        val tz = TimeZone.getTimeZone("UTC")
-        format.timeZone = tz
-        return@lazy format
-    }
-    
     fun mapToGetString(name: String, values: List<String?>): String {
         val encodedName = encode(name)
         return values.filterNotNull()
@@ -38,10 +34,27 @@ object Utils {
         }
     }
     
+    /**
+     * Waits for a future and rethrows its failure as is if it is a runtime exception
+     */
+    fun <T> await(future: CompletableFuture<T>): T {
+        try {
+            return future.get()
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw StepikClientException("Interrupted a request", e)
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            if (cause is RuntimeException) {
+                throw cause
+            }
+            throw StepikClientException("Failed a request", cause)
+        }
+    }
+    
     fun readFile(file: File): String? {
         return try {
-            file.readLines(charset = UTF_8)
-                    .reduce { line, text -> text + line }
+            file.readText(charset = UTF_8)
         } catch (e: IOException) {
             logger.warn("Failed reading a file: {}\n{}", file, e)
             null
@@ -105,13 +118,12 @@ fun Date?.toIsoFormat(): String? {
     if (this == null || this == Instant.EPOCH.toDate()) {
         return null
     }
-    return Utils.timeISOFormat.format(this)
+    return IsoDateCodec.format(this)
 }
 
+/**
+ * Returns the epoch for `null` or a malformed timestamp
+ */
 fun String?.toDate(): Date {
-    return try {
-        Utils.timeISOFormat.parse(this)
-    } catch (e: Exception) {
-        Instant.EPOCH.toDate()
-    }
+    return IsoDateCodec.parse(this) ?: Instant.EPOCH.toDate()
 }
@@ -4,8 +4,22 @@ import org.apache.http.HttpHeaders
 import org.slf4j.LoggerFactory
 import org.stepik.api.client.StatusCodes
 import org.stepik.api.client.StepikApiClient
+import org.stepik.api.client.StreamResponse
+import org.stepik.api.exceptions.StepikCancelledException
 import org.stepik.api.exceptions.StepikClientException
 import org.stepik.api.exceptions.StepikUnauthorizedException
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedByInterruptException
+import java.nio.channels.FileChannel
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.WRITE
 import java.util.*
 
 class StepikFilesAction(stepikApiClient: StepikApiClient) : StepikAbstractAction(stepikApiClient) {
@@ -14,32 +28,267 @@ class StepikFilesAction(stepikApiClient: StepikApiClient) : StepikAbstractAction
         val stepikApi = stepikApiClient
         val transportClient = stepikApi.transportClient
         
+        val response = transportClient[stepikApi, url, headers(contentType)]
+        
+        checkStatus(url, response.statusCode)
+        
+        return response.body
+    }
+    
+    /**
+     * Streams a file into [target] without keeping it in memory and returns its size.
+     *
+     * The content is written to `<target>.part` and moved to [target] when it is complete.
+     * A part left by a failed or cancelled download of the same [url] is resumed with a `Range` request
+     * guarded by `If-Range` with the `ETag` or `Last-Modified` of the first response,
+     * so a changed file is downloaded again. A part without such a validator is discarded.
+     * [progress] receives downloaded and total bytes (`-1` if unknown) and cancels the download by returning `false`;
+     * an interrupt of the calling thread cancels it too. A cancelled download throws [StepikCancelledException].
+     */
+    @JvmOverloads
+    fun download(
+            url: String,
+            target: Path,
+            contentType: String = DEFAULT_CONTENT_TYPE,
+            progress: (downloaded: Long, total: Long) -> Boolean = { _, _ -> true }): Long {
+        val part = partOf(target)
+        val meta = metaOf(target)
+        
+        try {
+            Files.createDirectories(target.toAbsolutePath().parent)
+            
+            val validator = readValidator(meta, url)
+            if (validator == null) {
+                Files.deleteIfExists(part)
+            }
+            
+            val size = download(url, part, meta, contentType, validator, progress)
+                    ?: download(url, part, meta, contentType, null, progress)
+                    ?: throw StepikClientException("Failed download $url: the range is not satisfiable")
+            
+            move(part, target)
+            Files.deleteIfExists(meta)
+            return size
+        } catch (e: ClosedByInterruptException) {
+            throw StepikCancelledException("Cancelled a download to $target")
+        } catch (e: IOException) {
+            if (e is InterruptedIOException && Thread.currentThread().isInterrupted) {
+                throw StepikCancelledException("Cancelled a download to $target")
+            }
+            throw StepikClientException("Failed download $url to $target", e)
+        }
+    }
+    
+    /**
+     * Returns `true` if a part left by a failed or cancelled download of [url] to [target] is resumed by [download]
+     */
+    fun hasPart(url: String, target: Path): Boolean {
+        return try {
+            Files.exists(partOf(target)) && readValidator(metaOf(target), url) != null
+        } catch (e: IOException) {
+            false
+        }
+    }
+    
+    /**
+     * Deletes a part of [target] left by a failed or cancelled download
+     */
+    fun deletePart(target: Path) {
+        try {
+            Files.deleteIfExists(partOf(target))
+            Files.deleteIfExists(metaOf(target))
+        } catch (e: IOException) {
+            logger.warn("Failed delete a part of $target", e)
+        }
+    }
+    
+    private fun partOf(target: Path) = target.resolveSibling("${target.fileName}$PART_SUFFIX")
+    
+    private fun metaOf(target: Path) = target.resolveSibling("${target.fileName}$META_SUFFIX")
+    
+    /**
+     * Downloads the rest of [part] and returns a size of the file,
+     * or returns `null` if the part can't be resumed and is discarded
+     */
+    private fun download(
+            url: String,
+            part: Path,
+            meta: Path,
+            contentType: String,
+            validator: String?,
+            progress: (downloaded: Long, total: Long) -> Boolean): Long? {
+        val stepikApi = stepikApiClient
+        val offset = if (validator != null && Files.exists(part)) Files.size(part) else 0L
+        
+        val headers = headers(contentType)
+        if (offset > 0 && validator != null) {
+            headers[HttpHeaders.RANGE] = "bytes=$offset-"
+            headers[HttpHeaders.IF_RANGE] = validator
+        }
+        
+        return stepikApi.transportClient.getStream(stepikApi, url, headers) { response ->
+            if (offset > 0 && response.statusCode == StatusCodes.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                // The part is complete only if the server reports the same size in `bytes */<size>`
+                val size = response.headers[HttpHeaders.CONTENT_RANGE]?.substringAfterLast('/')?.trim()?.toLongOrNull()
+                if (size == offset) {
+                    return@getStream offset
+                }
+                Files.deleteIfExists(part)
+                return@getStream null
+            }
+            checkStatus(url, response.statusCode)
+            
+            val resumed = offset > 0 && response.statusCode == StatusCodes.SC_PARTIAL_CONTENT
+            if (resumed && rangeStart(response) != offset) {
+                Files.deleteIfExists(part)
+                return@getStream null
+            }
+            if (!resumed) {
+                writeValidator(meta, url, response)
+            }
+            write(response, part, if (resumed) offset else 0L, progress)
+        }
+    }
+    
+    /**
+     * Returns a validator of a part downloaded from [url] or `null`
+     */
+    private fun readValidator(meta: Path, url: String): String? {
+        if (!Files.exists(meta)) {
+            return null
+        }
+        
+        val properties = Properties()
+        Files.newInputStream(meta).use { properties.load(it) }
+        if (properties.getProperty(URL_KEY) != url) {
+            return null
+        }
+        return properties.getProperty(VALIDATOR_KEY)
+    }
+    
+    private fun writeValidator(meta: Path, url: String, response: StreamResponse) {
+        val validator = response.headers[HttpHeaders.ETAG] ?: response.headers[HttpHeaders.LAST_MODIFIED]
+        if (validator == null) {
+            Files.deleteIfExists(meta)
+            return
+        }
+        
+        val properties = Properties()
+        properties.setProperty(URL_KEY, url)
+        properties.setProperty(VALIDATOR_KEY, validator)
+        Files.newOutputStream(meta).use { properties.store(it, null) }
+    }
+    
+    private fun write(
+            response: StreamResponse,
+            part: Path,
+            offset: Long,
+            progress: (downloaded: Long, total: Long) -> Boolean): Long {
+        val total = totalSize(response, offset)
+        // The content is read as a stream: an interruptible channel would close the connection from another thread
+        val source = response.content
+        val bytes = ByteArray(BUFFER_SIZE)
+        val buffer = ByteBuffer.wrap(bytes)
+        
+        try {
+            FileChannel.open(part, CREATE, WRITE).use { channel ->
+                channel.truncate(offset)
+                channel.position(offset)
+                var downloaded = offset
+                
+                while (true) {
+                    if (Thread.currentThread().isInterrupted || !progress(downloaded, total)) {
+                        throw StepikCancelledException("Cancelled a download to $part at $downloaded bytes")
+                    }
+                    
+                    val count = source.read(bytes)
+                    if (count < 0) {
+                        break
+                    }
+                    buffer.limit(count)
+                    while (buffer.hasRemaining()) {
+                        downloaded += channel.write(buffer)
+                    }
+                    buffer.clear()
+                }
+                
+                channel.force(false)
+                progress(downloaded, total)
+                return downloaded
+            }
+        } catch (e: ClosedByInterruptException) {
+            // An interrupt is a cancellation, not an I/O failure to retry
+            throw StepikCancelledException("Cancelled a download to $part by an interrupt")
+        } catch (e: InterruptedIOException) {
+            // A content streamed by an asynchronous transport is interrupted so, unlike a socket timeout
+            if (!Thread.currentThread().isInterrupted) {
+                throw e
+            }
+            throw StepikCancelledException("Cancelled a download to $part by an interrupt")
+        }
+    }
+    
+    /**
+     * Returns a start of a range from `Content-Range` or `-1`
+     */
+    private fun rangeStart(response: StreamResponse): Long {
+        val range = response.headers[HttpHeaders.CONTENT_RANGE] ?: return -1
+        return range.substringAfter("bytes").substringBefore('-').trim().toLongOrNull() ?: -1
+    }
+    
+    /**
+     * Returns a size of a whole file from `Content-Range` or `Content-Length`, or `-1`
+     */
+    private fun totalSize(response: StreamResponse, offset: Long): Long {
+        val range = response.headers[HttpHeaders.CONTENT_RANGE]
+        if (response.statusCode == StatusCodes.SC_PARTIAL_CONTENT && range != null) {
+            return range.substringAfterLast('/').trim().toLongOrNull() ?: -1
+        }
+        
+        val length = response.headers[HttpHeaders.CONTENT_LENGTH]?.trim()?.toLongOrNull() ?: return -1
+        return if (response.statusCode == StatusCodes.SC_PARTIAL_CONTENT) offset + length else length
+    }
+    
+    private fun move(part: Path, target: Path) {
+        try {
+            Files.move(part, target, REPLACE_EXISTING, ATOMIC_MOVE)
+        } catch (e: AtomicMoveNotSupportedException) {
+            Files.move(part, target, REPLACE_EXISTING)
+        }
+    }
+    
+    private fun headers(contentType: String): MutableMap<String, String> {
         val headers = HashMap<String, String>()
-        val tokenInfo = stepikApi.tokenInfo
+        val tokenInfo = stepikApiClient.tokenInfo
         val accessToken = tokenInfo?.accessToken
         if (accessToken != null) {
             val tokenType = tokenInfo.tokenType
             headers[HttpHeaders.AUTHORIZATION] = "$tokenType $accessToken"
         }
         headers[HttpHeaders.CONTENT_TYPE] = contentType
-        
-        val response = transportClient[stepikApi, url, headers]
-        
-        if (response.statusCode / 100 != 2) {
-            val message = "Failed query to $url returned the status code ${response.statusCode}"
+        return headers
+    }
+    
+    private fun checkStatus(url: String, statusCode: Int) {
+        if (statusCode / 100 != 2) {
+            val message = "Failed query to $url returned the status code $statusCode"
             logger.warn(message)
             
-            if (response.statusCode == StatusCodes.SC_UNAUTHORIZED) {
+            if (statusCode == StatusCodes.SC_UNAUTHORIZED) {
                 throw StepikUnauthorizedException(message)
             } else {
                 throw StepikClientException(message)
             }
         }
-        
-        return response.body
     }
     
     companion object {
         private val logger = LoggerFactory.getLogger(StepikFilesAction::class.java)
+        private const val DEFAULT_CONTENT_TYPE = "application/octet-stream"
+        private const val PART_SUFFIX = ".part"
+        private const val META_SUFFIX = ".part.meta"
+        private const val URL_KEY = "url"
+        private const val VALIDATOR_KEY = "validator"
+        private const val BUFFER_SIZE = 64 * 1024
     }
 }
@@ -0,0 +1,158 @@
+package org.stepik.api.auth
+
+import org.stepik.api.Utils
+import org.stepik.api.client.Loggable
+import org.stepik.api.client.StepikApiClient
+import org.stepik.api.exceptions.StepikUnauthorizedException
+import org.stepik.api.objects.auth.TokenInfo
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Refreshes an access token of a client shortly before it expires and after a query is unauthorized.
+ *
+ * A refresh needs [clientId] and a refresh token. Only one refresh runs at a time:
+ * concurrent callers share its future and queries started during a refresh wait for it.
+ */
+class TokenManager internal constructor(private val stepikApiClient: StepikApiClient) : Loggable {
+    
+    private val pending = AtomicReference<CompletableFuture<TokenInfo>?>()
+    private var scheduledRefresh: ScheduledFuture<*>? = null
+    
+    /**
+     * An OAuth client id; tokens are not refreshed without it
+     */
+    @Volatile
+    var clientId: String? = null
+        set(value) {
+            field = value
+            schedule(stepikApiClient.tokenInfo)
+        }
+    /**
+     * A token is refreshed this many milliseconds before it expires
+     */
+    @Volatile
+    var refreshMargin = DEFAULT_REFRESH_MARGIN
+    /**
+     * Notified about every refreshed token, for example to store it
+     */
+    val listeners: MutableList<(TokenInfo) -> Unit> = CopyOnWriteArrayList()
+    
+    val canRefresh: Boolean
+        get() = clientId != null && stepikApiClient.tokenInfo?.refreshToken != null
+    
+    /**
+     * `true` if a token has a known expiration time which has passed
+     */
+    val isExpired: Boolean
+        get() {
+            val expiresAt = stepikApiClient.tokenInfo?.expiresAt ?: 0
+            return expiresAt > 0 && expiresAt <= System.currentTimeMillis()
+        }
+    
+    fun refresh(): TokenInfo = Utils.await(refreshAsync())
+    
+    /**
+     * Starts a refresh or returns a future of a refresh which is running already
+     */
+    fun refreshAsync(): CompletableFuture<TokenInfo> {
+        while (true) {
+            pending.get()?.let { return it }
+            
+            val future = CompletableFuture<TokenInfo>()
+            if (pending.compareAndSet(null, future)) {
+                start(future)
+                return future
+            }
+        }
+    }
+    
+    /**
+     * Refreshes a token after a query sent with [accessToken] was unauthorized,
+     * unless the token has been replaced since the query was sent
+     */
+    internal fun refreshUnauthorized(accessToken: String): CompletableFuture<TokenInfo> {
+        val tokenInfo = stepikApiClient.tokenInfo
+        if (pending.get() == null && tokenInfo != null && tokenInfo.accessToken != accessToken) {
+            return CompletableFuture.completedFuture(tokenInfo)
+        }
+        return refreshAsync()
+    }
+    
+    /**
+     * Returns a refresh which a query has to wait for before it is sent or `null`
+     */
+    internal fun awaitedRefresh(): CompletableFuture<TokenInfo>? {
+        pending.get()?.let { return it }
+        return if (isExpired && canRefresh) refreshAsync() else null
+    }
+    
+    internal fun tokenChanged(tokenInfo: TokenInfo?) {
+        schedule(tokenInfo)
+    }
+    
+    private fun start(future: CompletableFuture<TokenInfo>) {
+        val clientId = clientId
+        val refreshToken = stepikApiClient.tokenInfo?.refreshToken
+        if (clientId == null || refreshToken == null) {
+            pending.compareAndSet(future, null)
+            future.completeExceptionally(StepikUnauthorizedException("A token can't be refreshed"))
+            return
+        }
+        
+        val request = try {
+            stepikApiClient.oauth2()
+                    .userAuthenticationRefresh(clientId, refreshToken)
+                    .executeAsync()
+        } catch (e: RuntimeException) {
+            CompletableFuture<TokenInfo>().apply { completeExceptionally(e) }
+        }
+        
+        request.whenComplete { tokenInfo, error ->
+            pending.compareAndSet(future, null)
+            if (error != null) {
+                val cause = if (error is CompletionException && error.cause != null) error.cause!! else error
+                logger.info("Refresh a token failed: ${cause.message}")
+                future.completeExceptionally(cause)
+                return@whenComplete
+            }
+            
+            logger.info("Refresh a token is successfully")
+            listeners.forEach {
+                try {
+                    it(tokenInfo)
+                } catch (e: RuntimeException) {
+                    logger.warn("A token listener failed", e)
+                }
+            }
+            future.complete(tokenInfo)
+        }
+    }
+    
+    @Synchronized
+    private fun schedule(tokenInfo: TokenInfo?) {
+        scheduledRefresh?.cancel(false)
+        scheduledRefresh = null
+        
+        val expiresAt = tokenInfo?.expiresAt ?: 0
+        if (expiresAt <= 0 || tokenInfo?.refreshToken == null || clientId == null) {
+            return
+        }
+        
+        val delay = Math.max(0, expiresAt - refreshMargin - System.currentTimeMillis())
+        scheduledRefresh = scheduler.schedule({ refreshAsync() }, delay, MILLISECONDS)
+    }
+    
+    companion object {
+        const val DEFAULT_REFRESH_MARGIN = 5 * 60 * 1000L
+        
+        private val scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "stepik-api-token-refresh").apply { isDaemon = true }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.stepik.api.client
+
+import org.apache.http.Consts
+import org.apache.http.HttpHost
+import org.apache.http.HttpResponse
+import org.apache.http.client.config.CookieSpecs
+import org.apache.http.client.config.RequestConfig
+import org.apache.http.client.methods.HttpGet
+import org.apache.http.client.methods.HttpPost
+import org.apache.http.client.methods.HttpUriRequest
+import org.apache.http.client.protocol.RequestAcceptEncoding
+import org.apache.http.config.Registry
+import org.apache.http.config.RegistryBuilder
+import org.apache.http.conn.routing.HttpRoute
+import org.apache.http.concurrent.FutureCallback
+import org.apache.http.conn.ssl.NoopHostnameVerifier
+import org.apache.http.entity.ContentType
+import org.apache.http.entity.StringEntity
+import org.apache.http.impl.DefaultConnectionReuseStrategy
+import org.apache.http.impl.client.BasicCookieStore
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient
+import org.apache.http.impl.nio.client.HttpAsyncClients
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor
+import org.apache.http.nio.NHttpClientConnection
+import org.apache.http.nio.client.methods.HttpAsyncMethods
+import org.apache.http.nio.conn.NoopIOSessionStrategy
+import org.apache.http.nio.conn.SchemeIOSessionStrategy
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy
+import org.apache.http.nio.reactor.ConnectingIOReactor
+import org.apache.http.nio.reactor.IOReactorException
+import org.apache.http.ssl.SSLContexts
+import org.slf4j.LoggerFactory
+import org.stepik.api.Utils.await
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE_HEADER
+import org.stepik.api.client.HttpTransportClient.Companion.decompress
+import org.stepik.api.client.HttpTransportClient.Companion.openContent
+import org.stepik.api.client.HttpTransportClient.Companion.readHeaders
+import org.stepik.api.exceptions.StepikCancelledException
+import org.stepik.api.exceptions.StepikClientException
+import java.security.KeyManagementException
+import java.security.KeyStoreException
+import java.security.NoSuchAlgorithmException
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeUnit.MILLISECONDS
+
+/**
+ * A transport over the NIO Apache client: requests are multiplexed on a few I/O reactor threads,
+ * so waiting for a response does not hold a thread.
+ * A content is streamed to a handler while it is received (see [StreamingResponseConsumer]),
+ * a handler of a blocking call runs on the calling thread.
+ * The NIO client has no content decoding of its own, so gzip and deflate responses are decoded here.
+ */
+class AsyncHttpTransportClient private constructor(
+        proxyHost: String?,
+        proxyPort: Int,
+        userAgent: String,
+        poolConfig: ConnectionPoolConfig) : TransportClient {
+    
+    private val httpClient: CloseableHttpAsyncClient
+    private val connectionManager: PoolingNHttpClientConnectionManager
+    private val leaseTimer = LeaseTimer()
+    
+    private constructor(userAgent: String, poolConfig: ConnectionPoolConfig) : this(null, 0, userAgent, poolConfig)
+    
+    init {
+        val cookieStore = BasicCookieStore()
+        val requestConfig = RequestConfig.custom()
+                .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                .setConnectTimeout(CONNECTION_TIMEOUT_MS)
+                .setConnectionRequestTimeout(CONNECTION_TIMEOUT_MS)
+                .setCookieSpec(CookieSpecs.STANDARD)
+                .build()
+        
+        val builder = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultCookieStore(cookieStore)
+                .setUserAgent(userAgent)
+                .setConnectionReuseStrategy(DefaultConnectionReuseStrategy.INSTANCE)
+                .addInterceptorFirst(RequestAcceptEncoding())
+        
+        val sessionStrategies = RegistryBuilder.create<SchemeIOSessionStrategy>()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+        
+        try {
+            val sslContext = SSLContexts.custom()
+                    .loadTrustMaterial(null) { _, _ -> true }
+                    .build()
+            
+            sessionStrategies.register("https", SSLIOSessionStrategy(sslContext, NoopHostnameVerifier.INSTANCE))
+        } catch (e: NoSuchAlgorithmException) {
+            logger.warn("Failed set SSL context", e)
+        } catch (e: KeyManagementException) {
+            logger.warn("Failed set SSL context", e)
+        } catch (e: KeyStoreException) {
+            logger.warn("Failed set SSL context", e)
+        }
+        
+        if (proxyHost != null) {
+            val host = HttpHost(proxyHost, proxyPort)
+            builder.setProxy(host)
+        }
+        
+        val ioReactor = try {
+            DefaultConnectingIOReactor()
+        } catch (e: IOReactorException) {
+            throw StepikClientException("Failed create an I/O reactor", e)
+        }
+        
+        connectionManager = TimedConnectionManager(ioReactor, sessionStrategies.build(), poolConfig.timeToLiveMs)
+        connectionManager.maxTotal = poolConfig.maxTotal
+        connectionManager.defaultMaxPerRoute = poolConfig.maxPerRoute
+        builder.setConnectionManager(connectionManager)
+        
+        httpClient = builder.build()
+        httpClient.start()
+        
+        // The NIO client does not evict connections by itself
+        val evictionPeriod = Math.max(MIN_EVICTION_PERIOD_MS, Math.min(poolConfig.maxIdleMs, poolConfig.timeToLiveMs))
+        evictor.scheduleWithFixedDelay({
+            connectionManager.closeExpiredConnections()
+            connectionManager.closeIdleConnections(poolConfig.maxIdleMs, MILLISECONDS)
+        }, evictionPeriod, evictionPeriod, MILLISECONDS)
+    }
+    
+    override val poolStats: PoolStats
+        get() = leaseTimer.stats(connectionManager.totalStats)
+    
+    override fun post(stepikApiClient: StepikApiClient, url: String, body: String?): ClientResponse {
+        val headers = HashMap<String, String>()
+        headers[CONTENT_TYPE_HEADER] = CONTENT_TYPE
+        
+        return post(stepikApiClient, url, body, headers)
+    }
+    
+    override fun get(stepikApiClient: StepikApiClient, url: String): ClientResponse {
+        return get(stepikApiClient, url, null)
+    }
+    
+    override fun post(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): ClientResponse {
+        return await(postAsync(stepikApiClient, url, body, headers))
+    }
+    
+    override fun get(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): ClientResponse {
+        return await(getAsync(stepikApiClient, url, headers))
+    }
+    
+    override fun postAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return postStreamAsync(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun getAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return getStreamAsync(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun <R> postStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return stream(stepikApiClient, postRequest(url, body, headers), handler)
+    }
+    
+    override fun <R> getStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return stream(stepikApiClient, getRequest(url, headers), handler)
+    }
+    
+    override fun <R> postStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        return call(stepikApiClient, postRequest(url, body, headers), handler)
+    }
+    
+    override fun <R> getStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        return call(stepikApiClient, getRequest(url, headers), handler)
+    }
+    
+    private fun getRequest(url: String, headers: Map<String, String>?): HttpUriRequest {
+        val request = HttpGet(url)
+        headers?.forEach { name, value -> request.setHeader(name, value) }
+        return request
+    }
+    
+    private fun postRequest(url: String, body: String?, headers: Map<String, String>?): HttpUriRequest {
+        val request = HttpPost(url)
+        headers?.forEach { name, value -> request.setHeader(name, value) }
+        
+        if (body != null) {
+            val contentType = ContentType.create(
+                    headers?.get(CONTENT_TYPE_HEADER) ?: CONTENT_TYPE,
+                    Consts.UTF_8)
+            request.entity = StringEntity(body, contentType)
+        }
+        return request
+    }
+    
+    /**
+     * Runs a handler on a calling thread as soon as headers arrive, an interrupt cancels the request
+     */
+    private fun <R> stream(
+            stepikApiClient: StepikApiClient,
+            request: HttpUriRequest,
+            handler: (StreamResponse) -> R): R {
+        val consumer = execute(request)
+        val httpResponse = try {
+            consumer.response.get()
+        } catch (e: InterruptedException) {
+            consumer.abort()
+            Thread.currentThread().interrupt()
+            throw StepikCancelledException("Interrupted a request to ${request.uri}")
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            throw cause as? RuntimeException ?: StepikClientException("Failed a request", cause)
+        }
+        
+        return handle(stepikApiClient, consumer, httpResponse, handler)
+    }
+    
+    private fun <R> call(
+            stepikApiClient: StepikApiClient,
+            request: HttpUriRequest,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        val consumer = execute(request)
+        
+        // A handler runs off the I/O reactor threads and reads the content while it is received
+        val result = consumer.response.thenApplyAsync { httpResponse ->
+            handle(stepikApiClient, consumer, httpResponse, handler)
+        }
+        
+        result.whenComplete { _, _ ->
+            if (result.isCancelled) {
+                consumer.abort()
+            }
+        }
+        
+        return result
+    }
+    
+    private fun execute(request: HttpUriRequest): StreamingResponseConsumer {
+        val consumer = StreamingResponseConsumer()
+        val execution = httpClient.execute(HttpAsyncMethods.create(request), consumer,
+                object : FutureCallback<HttpResponse> {
+                    override fun completed(result: HttpResponse?) {
+                    }
+                    
+                    override fun failed(ex: Exception) {
+                        consumer.fail(StepikClientException("Failed a request", ex))
+                    }
+                    
+                    override fun cancelled() {
+                        consumer.abort()
+                    }
+                })
+        consumer.executing(execution)
+        return consumer
+    }
+    
+    /**
+     * A handler which fails drops the connection, so the rest of a content is not received
+     */
+    private fun <R> handle(
+            stepikApiClient: StepikApiClient,
+            consumer: StreamingResponseConsumer,
+            httpResponse: HttpResponse,
+            handler: (StreamResponse) -> R): R {
+        val statusCode = httpResponse.statusLine.statusCode
+        try {
+            return openContent(decompress(httpResponse.entity)).use { content ->
+                handler(StreamResponse(stepikApiClient, statusCode, content, readHeaders(httpResponse)))
+            }
+        } catch (e: Throwable) {
+            consumer.abort()
+            throw e
+        }
+    }
+    
+    private inner class TimedConnectionManager(
+            ioReactor: ConnectingIOReactor,
+            sessionStrategies: Registry<SchemeIOSessionStrategy>,
+            timeToLiveMs: Long) :
+            PoolingNHttpClientConnectionManager(ioReactor, null, sessionStrategies, null, null, timeToLiveMs,
+                    MILLISECONDS) {
+        
+        override fun requestConnection(
+                route: HttpRoute,
+                state: Any?,
+                connectTimeout: Long,
+                leaseTimeout: Long,
+                tunit: TimeUnit,
+                callback: FutureCallback<NHttpClientConnection>?): Future<NHttpClientConnection> {
+            val start = System.nanoTime()
+            return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit,
+                    object : FutureCallback<NHttpClientConnection> {
+                        override fun completed(result: NHttpClientConnection) {
+                            leaseTimer.record(start)
+                            callback?.completed(result)
+                        }
+                        
+                        override fun failed(ex: Exception) {
+                            leaseTimer.record(start)
+                            callback?.failed(ex)
+                        }
+                        
+                        override fun cancelled() {
+                            callback?.cancelled()
+                        }
+                    })
+        }
+    }
+    
+    companion object {
+        private val logger = LoggerFactory.getLogger(AsyncHttpTransportClient::class.java)
+        
+        private const val MIN_EVICTION_PERIOD_MS = 1000L
+        private const val FULL_CONNECTION_TIMEOUT_S = 30
+        private const val CONNECTION_TIMEOUT_MS = 5000
+        private const val SOCKET_TIMEOUT_MS = FULL_CONNECTION_TIMEOUT_S * 1000
+        private val instances = HashMap<Pair<String?, Int>, AsyncHttpTransportClient>()
+        private var instance: AsyncHttpTransportClient? = null
+        
+        private val evictor = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "stepik-api-connection-evictor").apply { isDaemon = true }
+        }
+        
+        /**
+         * [poolConfig] is applied only when the instance is created
+         */
+        fun getInstance(
+                userAgent: String,
+                poolConfig: ConnectionPoolConfig = ConnectionPoolConfig()): AsyncHttpTransportClient {
+            if (instance == null) {
+                instance = AsyncHttpTransportClient(userAgent, poolConfig)
+            }
+            
+            return instance!!
+        }
+        
+        fun getInstance(
+                proxyHost: String?,
+                proxyPort: Int,
+                userAgent: String,
+                poolConfig: ConnectionPoolConfig = ConnectionPoolConfig()): AsyncHttpTransportClient {
+            val proxy = Pair(proxyHost, proxyPort)
+            
+            return instances.computeIfAbsent(proxy) { (_, _) ->
+                AsyncHttpTransportClient(proxyHost, proxyPort, userAgent, poolConfig)
+            }
+        }
+    }
+}
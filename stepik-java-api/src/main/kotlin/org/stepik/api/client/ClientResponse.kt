@@ -1,11 +1,19 @@
 package org.stepik.api.client
 
+import java.io.ByteArrayInputStream
+import java.nio.charset.StandardCharsets.UTF_8
+
 class ClientResponse internal constructor(
         val stepikApiClient: StepikApiClient,
         val statusCode: Int,
-        val body: String) {
+        val body: String,
+        val headers: Map<String, String> = emptyMap()) {
     
     fun <T> getBody(clazz: Class<T>): T? {
         return stepikApiClient.jsonConverter.fromJson(body, clazz)
     }
+    
+    fun toStreamResponse(): StreamResponse {
+        return StreamResponse(stepikApiClient, statusCode, ByteArrayInputStream(body.toByteArray(UTF_8)), headers)
+    }
 }
@@ -0,0 +1,11 @@
+package org.stepik.api.client
+
+/**
+ * Connection pool settings of HTTP transports.
+ * A connection is closed when it has lived for [timeToLiveMs] or has been idle for [maxIdleMs].
+ */
+class ConnectionPoolConfig(
+        val maxTotal: Int = 50,
+        val maxPerRoute: Int = 20,
+        val timeToLiveMs: Long = 5 * 60 * 1000,
+        val maxIdleMs: Long = 30 * 1000)
@@ -0,0 +1,139 @@
+package org.stepik.api.client
+
+import com.google.gson.GsonBuilder
+import org.stepik.api.exceptions.StepikClientException
+import java.io.IOException
+import java.net.URI
+import java.net.URISyntaxException
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.security.MessageDigest
+import java.util.*
+
+/**
+ * Recorded responses in a fixture directory, see [RecordingTransportClient] and [ReplayTransportClient].
+ *
+ * A response is addressed by a method, a path with a query, a request body and conditional request headers
+ * ([CONDITIONAL_HEADERS]), so fixtures recorded against one host are replayed against any other,
+ * authorization does not matter and a `304` or a `206` is replayed only for the same conditional request.
+ * Every response is kept in two files: `<key hash>.json` with a request and a status and headers,
+ * and `<key hash>.body` with raw content.
+ */
+class FixtureStore(val directory: Path) {
+    
+    fun save(fixture: Fixture) {
+        val name = fileName(fixture.method, fixture.url, fixture.requestBody, fixture.conditions)
+        try {
+            Files.createDirectories(directory)
+            write(directory.resolve("$name$BODY_EXTENSION"), fixture.content)
+            write(directory.resolve("$name$JSON_EXTENSION"), gson.toJson(fixture.toRecord()).toByteArray(UTF_8))
+        } catch (e: IOException) {
+            throw StepikClientException("Failed record a fixture: ${fixture.method} ${fixture.url}", e)
+        }
+    }
+    
+    @JvmOverloads
+    fun load(method: String, url: String, requestBody: String?, requestHeaders: Map<String, String>? = null): Fixture? {
+        val conditions = conditions(requestHeaders)
+        val name = fileName(method, url, requestBody, conditions)
+        val json = directory.resolve("$name$JSON_EXTENSION")
+        if (!Files.exists(json)) {
+            return null
+        }
+        
+        try {
+            val record = gson.fromJson(String(Files.readAllBytes(json), UTF_8), Record::class.java)
+            val content = Files.readAllBytes(directory.resolve("$name$BODY_EXTENSION"))
+            val headers = TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER)
+            record.headers?.let { headers.putAll(it) }
+            return Fixture(method, url, requestBody, record.statusCode, headers, content, conditions)
+        } catch (e: IOException) {
+            throw StepikClientException("Failed read a fixture: $method $url", e)
+        }
+    }
+    
+    val size: Int
+        get() {
+            if (!Files.isDirectory(directory)) {
+                return 0
+            }
+            return Files.newDirectoryStream(directory, "*$JSON_EXTENSION").use { it.count() }
+        }
+    
+    private fun write(file: Path, content: ByteArray) {
+        val temp = Files.createTempFile(directory, file.fileName.toString(), TEMP_EXTENSION)
+        Files.write(temp, content)
+        try {
+            Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE)
+        } catch (e: AtomicMoveNotSupportedException) {
+            Files.move(temp, file, REPLACE_EXISTING)
+        }
+    }
+    
+    private fun fileName(method: String, url: String, requestBody: String?, conditions: Map<String, String>): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        digest.update("$method ${pathAndQuery(url)}\n${requestBody ?: ""}".toByteArray(UTF_8))
+        if (conditions.isNotEmpty()) {
+            val lines = conditions.entries.joinToString("\n") { "${it.key.toLowerCase()}: ${it.value}" }
+            digest.update("\n$lines".toByteArray(UTF_8))
+        }
+        return digest.digest().joinToString("") { String.format("%02x", it) }
+    }
+    
+    private fun pathAndQuery(url: String): String {
+        return try {
+            val uri = URI(url)
+            if (uri.rawQuery == null) uri.rawPath else "${uri.rawPath}?${uri.rawQuery}"
+        } catch (e: URISyntaxException) {
+            url
+        }
+    }
+    
+    private fun Fixture.toRecord() = Record(method, url, requestBody, conditions, statusCode, headers)
+    
+    private class Record(
+            val method: String,
+            val url: String,
+            val requestBody: String?,
+            val conditions: Map<String, String>?,
+            val statusCode: Int,
+            val headers: Map<String, String>?)
+    
+    class Fixture(
+            val method: String,
+            val url: String,
+            val requestBody: String?,
+            val statusCode: Int,
+            val headers: Map<String, String>,
+            val content: ByteArray,
+            val conditions: Map<String, String> = emptyMap())
+    
+    companion object {
+        private const val JSON_EXTENSION = ".json"
+        private const val BODY_EXTENSION = ".body"
+        private const val TEMP_EXTENSION = ".tmp"
+        private val gson = GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create()
+        
+        /**
+         * Request headers which change a response of a server for the same url
+         */
+        val CONDITIONAL_HEADERS = listOf("If-Modified-Since", "If-None-Match", "If-Range", "Range")
+        
+        /**
+         * Conditional headers of a request ordered by a name, which are a part of an address of a fixture
+         */
+        fun conditions(requestHeaders: Map<String, String>?): Map<String, String> {
+            val conditions = TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER)
+            requestHeaders?.forEach { (name, value) ->
+                if (CONDITIONAL_HEADERS.any { it.equals(name, ignoreCase = true) }) {
+                    conditions[name] = value
+                }
+            }
+            return conditions
+        }
+    }
+}
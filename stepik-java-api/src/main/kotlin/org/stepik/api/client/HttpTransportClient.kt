@@ -1,12 +1,23 @@
 package org.stepik.api.client
 
 import org.apache.http.Consts
+import org.apache.http.HttpEntity
+import org.apache.http.HttpClientConnection
 import org.apache.http.HttpHost
+import org.apache.http.HttpResponse
 import org.apache.http.client.config.CookieSpecs
 import org.apache.http.client.config.RequestConfig
+import org.apache.http.client.entity.DeflateDecompressingEntity
+import org.apache.http.client.entity.GzipDecompressingEntity
 import org.apache.http.client.methods.HttpGet
 import org.apache.http.client.methods.HttpPost
 import org.apache.http.client.methods.HttpUriRequest
+import org.apache.http.config.Registry
+import org.apache.http.config.RegistryBuilder
+import org.apache.http.conn.ConnectionRequest
+import org.apache.http.conn.routing.HttpRoute
+import org.apache.http.conn.socket.ConnectionSocketFactory
+import org.apache.http.conn.socket.PlainConnectionSocketFactory
 import org.apache.http.conn.ssl.NoopHostnameVerifier
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory
 import org.apache.http.entity.ContentType
@@ -15,22 +26,33 @@ import org.apache.http.impl.DefaultConnectionReuseStrategy
 import org.apache.http.impl.client.BasicCookieStore
 import org.apache.http.impl.client.CloseableHttpClient
 import org.apache.http.impl.client.HttpClients
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager
 import org.apache.http.ssl.SSLContexts
 import org.slf4j.LoggerFactory
 import org.stepik.api.exceptions.StepikClientException
 import java.io.BufferedReader
+import java.io.ByteArrayInputStream
 import java.io.IOException
+import java.io.InputStream
 import java.io.InputStreamReader
 import java.security.KeyManagementException
 import java.security.KeyStoreException
 import java.security.NoSuchAlgorithmException
 import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeUnit.MILLISECONDS
 
-class HttpTransportClient private constructor(proxyHost: String?, proxyPort: Int, userAgent: String) : TransportClient {
+class HttpTransportClient private constructor(
+        proxyHost: String?,
+        proxyPort: Int,
+        userAgent: String,
+        poolConfig: ConnectionPoolConfig) : TransportClient {
     
     private val httpClient: CloseableHttpClient
+    private val connectionManager: PoolingHttpClientConnectionManager
+    private val leaseTimer = LeaseTimer()
     
-    private constructor(userAgent: String) : this(null, 0, userAgent)
+    private constructor(userAgent: String, poolConfig: ConnectionPoolConfig) : this(null, 0, userAgent, poolConfig)
     
     init {
         val cookieStore = BasicCookieStore()
@@ -44,9 +66,14 @@ class HttpTransportClient private constructor(proxyHost: String?, proxyPort: Int
         val builder = HttpClients.custom()
                 .setDefaultRequestConfig(requestConfig)
                 .setDefaultCookieStore(cookieStore)
-                .setMaxConnPerRoute(MAX_SIMULTANEOUS_CONNECTIONS)
                 .setUserAgent(userAgent)
                 .setConnectionReuseStrategy(DefaultConnectionReuseStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(poolConfig.maxIdleMs, MILLISECONDS)
+        
+        val socketFactories = RegistryBuilder.create<ConnectionSocketFactory>()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSocketFactory())
         
         try {
             val sslContext = SSLContexts.custom()
@@ -56,7 +83,7 @@ class HttpTransportClient private constructor(proxyHost: String?, proxyPort: Int
             val sslSocketFactory = SSLConnectionSocketFactory(sslContext,
                     NoopHostnameVerifier.INSTANCE)
             
-            builder.setSSLSocketFactory(sslSocketFactory)
+            socketFactories.register("https", sslSocketFactory)
         } catch (e: NoSuchAlgorithmException) {
             logger.warn("Failed set SSL connection socket factory", e)
         } catch (e: KeyManagementException) {
@@ -70,9 +97,17 @@ class HttpTransportClient private constructor(proxyHost: String?, proxyPort: Int
             builder.setProxy(host)
         }
         
+        connectionManager = TimedConnectionManager(socketFactories.build(), poolConfig.timeToLiveMs)
+        connectionManager.maxTotal = poolConfig.maxTotal
+        connectionManager.defaultMaxPerRoute = poolConfig.maxPerRoute
+        builder.setConnectionManager(connectionManager)
+        
         httpClient = builder.build()
     }
     
+    override val poolStats: PoolStats
+        get() = leaseTimer.stats(connectionManager.totalStats)
+    
     override fun post(stepikApiClient: StepikApiClient, url: String, body: String?): ClientResponse {
         val headers = HashMap<String, String>()
         headers[CONTENT_TYPE_HEADER] = CONTENT_TYPE
@@ -89,6 +124,22 @@ class HttpTransportClient private constructor(proxyHost: String?, proxyPort: Int
             url: String,
             body: String?,
             headers: Map<String, String>?): ClientResponse {
+        return postStream(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun get(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): ClientResponse {
+        return getStream(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun <R> postStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
         val request = HttpPost(url)
         headers?.forEach { name, value -> request.setHeader(name, value) }
         
@@ -98,80 +149,82 @@ class HttpTransportClient private constructor(proxyHost: String?, proxyPort: Int
                     Consts.UTF_8)
             request.entity = StringEntity(body, contentType)
         }
-        return call(stepikApiClient, request)
+        return call(stepikApiClient, request, handler)
     }
     
-    override fun get(
+    override fun <R> getStream(
             stepikApiClient: StepikApiClient,
             url: String,
-            headers: Map<String, String>?): ClientResponse {
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
         val request = HttpGet(url)
         headers?.forEach { name, value -> request.setHeader(name, value) }
-        return call(stepikApiClient, request)
+        return call(stepikApiClient, request, handler)
     }
     
-    private fun call(
+    private fun <R> call(
             stepikApiClient: StepikApiClient,
-            request: HttpUriRequest): ClientResponse {
-        var statusCode: Int
-        var result: StringBuilder
-        
+            request: HttpUriRequest,
+            handler: (StreamResponse) -> R): R {
         try {
             httpClient.execute(request)
                     .use { response ->
-                        statusCode = response.statusLine
+                        val statusCode = response.statusLine
                                 .statusCode
                         
-                        val entity = response.entity
-                        result = StringBuilder()
-                        
-                        if (entity != null) {
-                            try {
-                                BufferedReader(
-                                        InputStreamReader(entity.content, ENCODING)).use { content ->
-                                    
-                                    var line = content.readLine()
-                                    while (line != null) {
-                                        result.append("\n")
-                                                .append(line)
-                                        line = content.readLine()
-                                    }
-                                    
-                                    if (result.isNotEmpty()) {
-                                        result.deleteCharAt(0) // Delete first break line
-                                    }
-                                }
-                            } catch (e: IOException) {
-                                throw StepikClientException("Failed getting a content", e)
-                            } catch (e: UnsupportedOperationException) {
-                                throw StepikClientException("Failed getting a content", e)
-                            }
-                            
+                        return openContent(response.entity).use { content ->
+                            handler(StreamResponse(stepikApiClient, statusCode, content, readHeaders(response)))
                         }
-                        return ClientResponse(stepikApiClient, statusCode, result.toString())
                     }
         } catch (e: IOException) {
             throw StepikClientException("Failed a request", e)
         }
     }
     
+    private inner class TimedConnectionManager(
+            socketFactories: Registry<ConnectionSocketFactory>,
+            timeToLiveMs: Long) :
+            PoolingHttpClientConnectionManager(socketFactories, null, null, null, timeToLiveMs, MILLISECONDS) {
+        
+        override fun requestConnection(route: HttpRoute, state: Any?): ConnectionRequest {
+            val request = super.requestConnection(route, state)
+            
+            return object : ConnectionRequest {
+                override fun get(timeout: Long, tunit: TimeUnit): HttpClientConnection {
+                    val start = System.nanoTime()
+                    try {
+                        return request.get(timeout, tunit)
+                    } finally {
+                        leaseTimer.record(start)
+                    }
+                }
+                
+                override fun cancel() = request.cancel()
+            }
+        }
+    }
+    
     companion object {
         private val logger = LoggerFactory.getLogger(HttpTransportClient::class.java)
         
-        private const val ENCODING = "UTF-8"
-        private const val CONTENT_TYPE = "application/x-www-form-urlencoded"
-        private const val CONTENT_TYPE_HEADER = "Content-Type"
+        internal const val ENCODING = "UTF-8"
+        internal const val CONTENT_TYPE = "application/x-www-form-urlencoded"
+        internal const val CONTENT_TYPE_HEADER = "Content-Type"
         
-        private const val MAX_SIMULTANEOUS_CONNECTIONS = 100000
         private const val FULL_CONNECTION_TIMEOUT_S = 30
         private const val CONNECTION_TIMEOUT_MS = 5000
         private const val SOCKET_TIMEOUT_MS = FULL_CONNECTION_TIMEOUT_S * 1000
         private val instances = HashMap<Pair<String?, Int>, HttpTransportClient>()
         private var instance: HttpTransportClient? = null
         
-        fun getInstance(userAgent: String): HttpTransportClient {
+        /**
+         * [poolConfig] is applied only when the instance is created
+         */
+        fun getInstance(
+                userAgent: String,
+                poolConfig: ConnectionPoolConfig = ConnectionPoolConfig()): HttpTransportClient {
             if (instance == null) {
-                instance = HttpTransportClient(userAgent)
+                instance = HttpTransportClient(userAgent, poolConfig)
             }
             
             return instance!!
@@ -180,12 +233,73 @@ class HttpTransportClient private constructor(proxyHost: String?, proxyPort: Int
         fun getInstance(
                 proxyHost: String?,
                 proxyPort: Int,
-                userAgent: String): HttpTransportClient {
+                userAgent: String,
+                poolConfig: ConnectionPoolConfig = ConnectionPoolConfig()): HttpTransportClient {
             val proxy = Pair(proxyHost, proxyPort)
             
             return instances.computeIfAbsent(proxy) { (_, _) ->
-                HttpTransportClient(proxyHost, proxyPort, userAgent)
+                HttpTransportClient(proxyHost, proxyPort, userAgent, poolConfig)
             }
         }
+        
+        internal fun openContent(entity: HttpEntity?): InputStream {
+            entity ?: return ByteArrayInputStream(ByteArray(0))
+            
+            try {
+                return entity.content
+            } catch (e: IOException) {
+                throw StepikClientException("Failed getting a content", e)
+            } catch (e: UnsupportedOperationException) {
+                throw StepikClientException("Failed getting a content", e)
+            }
+        }
+        
+        /**
+         * Wraps an entity compressed with gzip or deflate into a decompressing one
+         */
+        internal fun decompress(entity: HttpEntity?): HttpEntity? {
+            val encoding = entity?.contentEncoding ?: return entity
+            
+            encoding.elements.forEach { element ->
+                when (element.name.toLowerCase(Locale.ENGLISH)) {
+                    "gzip", "x-gzip" -> return GzipDecompressingEntity(entity)
+                    "deflate"        -> return DeflateDecompressingEntity(entity)
+                    "identity"       -> return entity
+                }
+            }
+            
+            return entity
+        }
+        
+        /**
+         * Header names are case-insensitive
+         */
+        internal fun readHeaders(response: HttpResponse): Map<String, String> {
+            val headers = TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER)
+            response.allHeaders.forEach { headers[it.name] = it.value }
+            return headers
+        }
+        
+        internal fun readContent(content: InputStream): String {
+            val result = StringBuilder()
+            try {
+                BufferedReader(InputStreamReader(content, ENCODING)).use { reader ->
+                    var line = reader.readLine()
+                    while (line != null) {
+                        result.append("\n")
+                                .append(line)
+                        line = reader.readLine()
+                    }
+                    
+                    if (result.isNotEmpty()) {
+                        result.deleteCharAt(0) // Delete first break line
+                    }
+                }
+            } catch (e: IOException) {
+                throw StepikClientException("Failed getting a content", e)
+            }
+            
+            return result.toString()
+        }
     }
 }
@@ -0,0 +1,140 @@
+package org.stepik.api.client
+
+import org.stepik.api.Utils.await
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Shares results of requests which are in flight.
+ * A request key is registered until its request completes, so later callers only join the first one.
+ * Every caller receives its own copy of a result made by `copy`, the shared result itself isn't returned.
+ */
+class InFlightRequests {
+    private val requests = ConcurrentHashMap<String, SharedRequest>()
+    private val claims = ConcurrentHashMap<String, CompletableFuture<Any?>>()
+    
+    val size: Int
+        get() = requests.size + claims.size
+    
+    /**
+     * A waiting caller is a subscriber of a shared request like an async one,
+     * so the request isn't cancelled under it when all other callers cancel their futures
+     */
+    fun <T> execute(key: String, copy: (T) -> T = { it }, block: () -> T): T {
+        while (true) {
+            // The running caller can't cancel its request, so others never cancel it either
+            val own = SharedRequest()
+            own.hold()
+            val shared = requests.putIfAbsent(key, own) ?: own
+            if (shared !== own) {
+                val subscription = shared.subscribe(key, copy) ?: continue
+                try {
+                    return await(subscription)
+                } finally {
+                    subscription.cancel(true)
+                }
+            }
+            
+            try {
+                val result = block()
+                own.result.complete(result)
+                return copy(result)
+            } catch (e: Throwable) {
+                own.result.completeExceptionally(e)
+                throw e
+            } finally {
+                requests.remove(key, own)
+            }
+        }
+    }
+    
+    /**
+     * A shared request is cancelled when all its callers cancel their futures
+     */
+    fun <T> executeAsync(
+            key: String,
+            copy: (T) -> T = { it },
+            start: () -> CompletableFuture<T>): CompletableFuture<T> {
+        while (true) {
+            val own = SharedRequest()
+            val shared = requests.putIfAbsent(key, own) ?: own
+            val subscription = shared.subscribe(key, copy) ?: continue
+            
+            if (shared !== own) {
+                return subscription
+            }
+            
+            val request = try {
+                start()
+            } catch (e: Throwable) {
+                requests.remove(key, own)
+                own.result.completeExceptionally(e)
+                throw e
+            }
+            
+            own.request = request
+            request.whenComplete { result, e ->
+                requests.remove(key, own)
+                if (e != null) {
+                    own.result.completeExceptionally(e)
+                } else {
+                    own.result.complete(result)
+                }
+            }
+            
+            return subscription
+        }
+    }
+    
+    /**
+     * Registers [future] for [key] and returns `null`, or returns a future registered by another caller.
+     * The owner must [release] the key when it completes the future.
+     */
+    fun claim(key: String, future: CompletableFuture<Any?>): CompletableFuture<Any?>? {
+        return claims.putIfAbsent(key, future)
+    }
+    
+    fun release(key: String, future: CompletableFuture<Any?>) {
+        claims.remove(key, future)
+    }
+    
+    private inner class SharedRequest {
+        val result = CompletableFuture<Any?>()
+        @Volatile
+        var request: CompletableFuture<*>? = null
+        private val subscribers = AtomicInteger()
+        
+        /**
+         * Counts a caller, returns `false` if the request has been already cancelled by all its callers
+         */
+        fun hold(): Boolean {
+            return subscribers.getAndUpdate { if (it < 0) it else it + 1 } >= 0
+        }
+        
+        /**
+         * Returns `null` if the request has been already cancelled by all its callers
+         */
+        fun <T> subscribe(key: String, copy: (T) -> T): CompletableFuture<T>? {
+            if (!hold()) {
+                return null
+            }
+            
+            @Suppress("UNCHECKED_CAST")
+            val subscription = result.thenApply { copy(it as T) }
+            subscription.whenComplete { _, _ ->
+                if (subscription.isCancelled) {
+                    unsubscribe(key)
+                }
+            }
+            return subscription
+        }
+        
+        private fun unsubscribe(key: String) {
+            if (subscribers.updateAndGet { if (it == 1) -1 else it - 1 } == -1) {
+                requests.remove(key, this)
+                request?.cancel(true)
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.stepik.api.client
+
+/**
+ * A snapshot of a connection pool.
+ * A lease wait is a time from a request for a connection until it is given, including a connect time of new ones.
+ */
+data class PoolStats(
+        val leased: Int,
+        val pending: Int,
+        val available: Int,
+        val max: Int,
+        val leases: Long,
+        val averageLeaseWaitMs: Double,
+        val maxLeaseWaitMs: Double)
+
+internal class LeaseTimer {
+    private var leases = 0L
+    private var totalNanos = 0L
+    private var maxNanos = 0L
+    
+    @Synchronized
+    fun record(startNanos: Long) {
+        val nanos = System.nanoTime() - startNanos
+        leases++
+        totalNanos += nanos
+        maxNanos = Math.max(maxNanos, nanos)
+    }
+    
+    @Synchronized
+    fun stats(pool: org.apache.http.pool.PoolStats): PoolStats {
+        val average = if (leases == 0L) 0.0 else totalNanos / leases / NANOS_IN_MS
+        return PoolStats(pool.leased, pool.pending, pool.available, pool.max, leases, average, maxNanos / NANOS_IN_MS)
+    }
+    
+    companion object {
+        private const val NANOS_IN_MS = 1_000_000.0
+    }
+}
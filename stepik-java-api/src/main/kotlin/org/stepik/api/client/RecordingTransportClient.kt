@@ -0,0 +1,116 @@
+package org.stepik.api.client
+
+import org.stepik.api.client.FixtureStore.Fixture
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE_HEADER
+import java.io.ByteArrayInputStream
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Passes requests to [transportClient] and records every response to [fixtures]
+ * to be replayed by [ReplayTransportClient] later.
+ * A content of a response is read in full before a handler gets it.
+ */
+class RecordingTransportClient(
+        private val transportClient: TransportClient,
+        val fixtures: FixtureStore) : TransportClient {
+    
+    override val poolStats: PoolStats?
+        get() = transportClient.poolStats
+    
+    override fun post(stepikApiClient: StepikApiClient, url: String, body: String?): ClientResponse {
+        val headers = HashMap<String, String>()
+        headers[CONTENT_TYPE_HEADER] = CONTENT_TYPE
+        
+        return post(stepikApiClient, url, body, headers)
+    }
+    
+    override fun get(stepikApiClient: StepikApiClient, url: String): ClientResponse {
+        return get(stepikApiClient, url, null)
+    }
+    
+    override fun post(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): ClientResponse {
+        return postStream(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun get(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): ClientResponse {
+        return getStream(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun <R> getStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return transportClient.getStream(stepikApiClient, url, headers, record(GET, url, null, headers, handler))
+    }
+    
+    override fun <R> postStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        val recorder = record(POST, url, body, headers, handler)
+        return transportClient.postStream(stepikApiClient, url, body, headers, recorder)
+    }
+    
+    override fun postAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return postStreamAsync(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun getAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return getStreamAsync(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun <R> getStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        return transportClient.getStreamAsync(stepikApiClient, url, headers, record(GET, url, null, headers, handler))
+    }
+    
+    override fun <R> postStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        val recorder = record(POST, url, body, headers, handler)
+        return transportClient.postStreamAsync(stepikApiClient, url, body, headers, recorder)
+    }
+    
+    private fun <R> record(
+            method: String,
+            url: String,
+            body: String?,
+            requestHeaders: Map<String, String>?,
+            handler: (StreamResponse) -> R): (StreamResponse) -> R {
+        val conditions = FixtureStore.conditions(requestHeaders)
+        return { response ->
+            val content = response.content.readBytes()
+            fixtures.save(Fixture(method, url, body, response.statusCode, response.headers, content, conditions))
+            handler(response.withContent(ByteArrayInputStream(content)))
+        }
+    }
+    
+    companion object {
+        private const val GET = "GET"
+        private const val POST = "POST"
+    }
+}
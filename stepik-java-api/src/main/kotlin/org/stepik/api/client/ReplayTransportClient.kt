@@ -0,0 +1,188 @@
+package org.stepik.api.client
+
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE_HEADER
+import org.stepik.api.exceptions.StepikClientException
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.TimeUnit.NANOSECONDS
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.function.Supplier
+
+/**
+ * Answers requests with responses recorded by [RecordingTransportClient] and never touches a network.
+ *
+ * Every response is delayed by [latencyMs] before a handler gets it and its content is read
+ * at most at [bytesPerSecond] (`0` is unlimited), so a slow connection can be reproduced.
+ * A request without a recorded response fails with [StepikClientException].
+ */
+class ReplayTransportClient @JvmOverloads constructor(
+        val fixtures: FixtureStore,
+        @Volatile var latencyMs: Long = 0,
+        @Volatile var bytesPerSecond: Long = 0) : TransportClient {
+    
+    override fun post(stepikApiClient: StepikApiClient, url: String, body: String?): ClientResponse {
+        val headers = HashMap<String, String>()
+        headers[CONTENT_TYPE_HEADER] = CONTENT_TYPE
+        
+        return post(stepikApiClient, url, body, headers)
+    }
+    
+    override fun get(stepikApiClient: StepikApiClient, url: String): ClientResponse {
+        return get(stepikApiClient, url, null)
+    }
+    
+    override fun post(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): ClientResponse {
+        return postStream(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun get(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): ClientResponse {
+        return getStream(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun <R> getStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return replay(stepikApiClient, GET, url, null, headers, handler)
+    }
+    
+    override fun <R> postStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return replay(stepikApiClient, POST, url, body, headers, handler)
+    }
+    
+    override fun postAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return postStreamAsync(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun getAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return getStreamAsync(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    /**
+     * Runs on a replay pool, so delays do not occupy the common pool
+     */
+    override fun <R> getStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        return CompletableFuture.supplyAsync(
+                Supplier { replay(stepikApiClient, GET, url, null, headers, handler) },
+                executor)
+    }
+    
+    override fun <R> postStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        return CompletableFuture.supplyAsync(
+                Supplier { replay(stepikApiClient, POST, url, body, headers, handler) },
+                executor)
+    }
+    
+    private fun <R> replay(
+            stepikApiClient: StepikApiClient,
+            method: String,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        val fixture = fixtures.load(method, url, body, headers)
+                ?: throw StepikClientException("No recorded response for $method $url")
+        
+        sleep(latencyMs)
+        val content = ThrottledInputStream(ByteArrayInputStream(fixture.content), bytesPerSecond)
+        return handler(StreamResponse(stepikApiClient, fixture.statusCode, content, fixture.headers))
+    }
+    
+    /**
+     * Sleeps after every read until the bytes read so far fit a rate
+     */
+    private class ThrottledInputStream(
+            private val input: InputStream,
+            private val bytesPerSecond: Long) : InputStream() {
+        
+        private val start = System.nanoTime()
+        private var count = 0L
+        
+        override fun read(): Int {
+            val value = input.read()
+            if (value >= 0) {
+                throttle(1)
+            }
+            return value
+        }
+        
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            // Reads in chunks of a tenth of a second to keep a rate smooth
+            val limit = Math.max(1L, bytesPerSecond / 10)
+            val chunk = if (bytesPerSecond > 0) Math.min(length.toLong(), limit).toInt() else length
+            val read = input.read(buffer, offset, chunk)
+            if (read > 0) {
+                throttle(read)
+            }
+            return read
+        }
+        
+        override fun available() = input.available()
+        
+        private fun throttle(read: Int) {
+            if (bytesPerSecond <= 0) {
+                return
+            }
+            
+            count += read
+            val expectedNanos = count * SECONDS.toNanos(1) / bytesPerSecond
+            val elapsedNanos = System.nanoTime() - start
+            sleep(MILLISECONDS.convert(expectedNanos - elapsedNanos, NANOSECONDS))
+        }
+    }
+    
+    companion object {
+        private const val GET = "GET"
+        private const val POST = "POST"
+        
+        private val executor = Executors.newCachedThreadPool { runnable ->
+            Thread(runnable, "stepik-api-replay").apply { isDaemon = true }
+        }
+        
+        private fun sleep(millis: Long) {
+            if (millis <= 0) {
+                return
+            }
+            
+            try {
+                Thread.sleep(millis)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw StepikClientException("Interrupted a request", e)
+            }
+        }
+    }
+}
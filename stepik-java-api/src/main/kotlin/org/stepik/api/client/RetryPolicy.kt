@@ -0,0 +1,24 @@
+package org.stepik.api.client
+
+import org.stepik.api.client.StatusCodes.SC_BAD_GATEWAY
+import org.stepik.api.client.StatusCodes.SC_GATEWAY_TIMEOUT
+import org.stepik.api.client.StatusCodes.SC_INTERNAL_SERVER_ERROR
+import org.stepik.api.client.StatusCodes.SC_SERVICE_UNAVAILABLE
+import org.stepik.api.client.StatusCodes.SC_TOO_MANY_REQUESTS
+
+/**
+ * Settings of [RetryingTransportClient].
+ * A delay before the attempt `n + 1` is random between zero and `min(maxDelayMs, baseDelayMs * 2^(n - 1))`.
+ * After [failureThreshold] failures in a row requests to a host fail fast for [openCircuitMs],
+ * then one request is let through to probe the host.
+ * A 429 status is retried, but is not counted as a failure.
+ */
+class RetryPolicy(
+        val maxAttempts: Int = 3,
+        val baseDelayMs: Long = 200,
+        val maxDelayMs: Long = 10_000,
+        val retryStatuses: Set<Int> = setOf(SC_TOO_MANY_REQUESTS, SC_INTERNAL_SERVER_ERROR, SC_BAD_GATEWAY,
+                SC_SERVICE_UNAVAILABLE, SC_GATEWAY_TIMEOUT),
+        val retryPost: Boolean = false,
+        val failureThreshold: Int = 5,
+        val openCircuitMs: Long = 30_000)
@@ -0,0 +1,316 @@
+package org.stepik.api.client
+
+import org.apache.http.HttpHeaders
+import org.apache.http.client.utils.DateUtils
+import org.slf4j.LoggerFactory
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE
+import org.stepik.api.client.HttpTransportClient.Companion.CONTENT_TYPE_HEADER
+import org.stepik.api.client.StatusCodes.SC_SERVICE_UNAVAILABLE
+import org.stepik.api.client.StatusCodes.SC_TOO_MANY_REQUESTS
+import org.stepik.api.exceptions.StepikClientException
+import java.io.IOException
+import java.net.URI
+import java.net.URISyntaxException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit.MILLISECONDS
+
+/**
+ * Retries requests of [transportClient] which failed with an I/O error or a status from [RetryPolicy.retryStatuses].
+ * Only GET requests are retried unless [RetryPolicy.retryPost] is set.
+ * `Retry-After` of 429 and 503 responses takes precedence over the backoff.
+ * A 429 response is retried but doesn't count as a failure of the host for the circuit breaker.
+ * A handler sees only a response which is not retried.
+ */
+class RetryingTransportClient(
+        private val transportClient: TransportClient,
+        private val policy: RetryPolicy = RetryPolicy()) : TransportClient {
+    
+    private val breakers = ConcurrentHashMap<String, CircuitBreaker>()
+    
+    override val poolStats: PoolStats?
+        get() = transportClient.poolStats
+    
+    override fun post(stepikApiClient: StepikApiClient, url: String, body: String?): ClientResponse {
+        val headers = HashMap<String, String>()
+        headers[CONTENT_TYPE_HEADER] = CONTENT_TYPE
+        
+        return post(stepikApiClient, url, body, headers)
+    }
+    
+    override fun get(stepikApiClient: StepikApiClient, url: String): ClientResponse {
+        return get(stepikApiClient, url, null)
+    }
+    
+    override fun post(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): ClientResponse {
+        return postStream(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun get(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): ClientResponse {
+        return getStream(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun postAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return postStreamAsync(stepikApiClient, url, body, headers) { it.toClientResponse() }
+    }
+    
+    override fun getAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return getStreamAsync(stepikApiClient, url, headers) { it.toClientResponse() }
+    }
+    
+    override fun <R> getStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return retry(url, true, handler) { transportClient.getStream(stepikApiClient, url, headers, it) }
+    }
+    
+    override fun <R> postStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return retry(url, policy.retryPost, handler) {
+            transportClient.postStream(stepikApiClient, url, body, headers, it)
+        }
+    }
+    
+    override fun <R> getStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        val result = CompletableFuture<R>()
+        retryAsync(url, true, handler, result, 1) {
+            transportClient.getStreamAsync(stepikApiClient, url, headers, it)
+        }
+        return result
+    }
+    
+    override fun <R> postStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        val result = CompletableFuture<R>()
+        retryAsync(url, policy.retryPost, handler, result, 1) {
+            transportClient.postStreamAsync(stepikApiClient, url, body, headers, it)
+        }
+        return result
+    }
+    
+    private fun <R> retry(
+            url: String,
+            retryable: Boolean,
+            handler: (StreamResponse) -> R,
+            call: ((StreamResponse) -> R) -> R): R {
+        val breaker = breaker(url)
+        var attempt = 1
+        while (true) {
+            breaker.acquire()
+            val last = !retryable || attempt >= policy.maxAttempts
+            val delay = try {
+                return call(guard(breaker, attempt, last, handler))
+            } catch (e: RuntimeException) {
+                delay(breaker, e, attempt, last) ?: throw e
+            }
+            
+            logger.info("Retry a request to $url in $delay ms, attempt ${attempt + 1}")
+            try {
+                Thread.sleep(delay)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw StepikClientException("Interrupted a request", e)
+            }
+            attempt++
+        }
+    }
+    
+    private fun <R> retryAsync(
+            url: String,
+            retryable: Boolean,
+            handler: (StreamResponse) -> R,
+            result: CompletableFuture<R>,
+            attempt: Int,
+            call: ((StreamResponse) -> R) -> CompletableFuture<R>) {
+        if (result.isDone) {
+            return
+        }
+        
+        val breaker = breaker(url)
+        val last = !retryable || attempt >= policy.maxAttempts
+        val future = try {
+            breaker.acquire()
+            call(guard(breaker, attempt, last, handler))
+        } catch (e: RuntimeException) {
+            result.completeExceptionally(e)
+            return
+        }
+        
+        result.whenComplete { _, _ ->
+            if (result.isCancelled) {
+                future.cancel(true)
+            }
+        }
+        
+        future.whenComplete { value, error ->
+            if (error == null) {
+                result.complete(value)
+                return@whenComplete
+            }
+            
+            val cause = if (error is CompletionException && error.cause != null) error.cause!! else error
+            val delay = delay(breaker, cause, attempt, last)
+            if (delay == null) {
+                result.completeExceptionally(cause)
+                return@whenComplete
+            }
+            
+            logger.info("Retry a request to $url in $delay ms, attempt ${attempt + 1}")
+            scheduler.schedule({ retryAsync(url, retryable, handler, result, attempt + 1, call) }, delay, MILLISECONDS)
+        }
+    }
+    
+    /**
+     * Counts a response for the circuit breaker and hides a retryable response from the handler
+     */
+    private fun <R> guard(
+            breaker: CircuitBreaker,
+            attempt: Int,
+            last: Boolean,
+            handler: (StreamResponse) -> R): (StreamResponse) -> R {
+        return { response ->
+            val failed = response.statusCode in policy.retryStatuses
+            // A rate limit is not a failure of the host, its Retry-After is honored by the retry delay
+            breaker.completed(failed && response.statusCode != SC_TOO_MANY_REQUESTS)
+            if (failed && !last) {
+                throw RetryableStatusException(response.statusCode, retryAfter(response))
+            }
+            handler(if (attempt == 1) response else response.withAttempt(attempt))
+        }
+    }
+    
+    /**
+     * Returns a delay before the next attempt or `null` if the failure must not be retried
+     */
+    private fun delay(breaker: CircuitBreaker, error: Throwable, attempt: Int, last: Boolean): Long? {
+        if (error is RetryableStatusException) {
+            return error.retryAfter?.coerceAtMost(policy.maxDelayMs) ?: backoff(attempt)
+        }
+        
+        if (!isTransportFailure(error)) {
+            return null
+        }
+        
+        breaker.completed(true)
+        return if (last) null else backoff(attempt)
+    }
+    
+    private fun backoff(attempt: Int): Long {
+        val ceiling = Math.min(policy.maxDelayMs, policy.baseDelayMs shl Math.min(attempt - 1, 30))
+        return ThreadLocalRandom.current().nextLong(ceiling + 1)
+    }
+    
+    private fun isTransportFailure(error: Throwable): Boolean {
+        var cause: Throwable? = error
+        while (cause != null) {
+            if (cause is IOException) {
+                return true
+            }
+            cause = cause.cause
+        }
+        return false
+    }
+    
+    private fun retryAfter(response: StreamResponse): Long? {
+        if (response.statusCode != SC_TOO_MANY_REQUESTS && response.statusCode != SC_SERVICE_UNAVAILABLE) {
+            return null
+        }
+        
+        val value = response.headers[HttpHeaders.RETRY_AFTER]?.trim() ?: return null
+        val seconds = value.toLongOrNull()
+        if (seconds != null) {
+            return Math.max(0, seconds * 1000)
+        }
+        
+        val date = DateUtils.parseDate(value) ?: return null
+        return Math.max(0, date.time - System.currentTimeMillis())
+    }
+    
+    private fun breaker(url: String): CircuitBreaker {
+        val host = try {
+            URI(url).authority ?: url
+        } catch (e: URISyntaxException) {
+            url
+        }
+        
+        return breakers.computeIfAbsent(host) { CircuitBreaker(it) }
+    }
+    
+    private inner class CircuitBreaker(private val host: String) {
+        private var failures = 0
+        private var openUntil = 0L
+        
+        @Synchronized
+        fun acquire() {
+            if (failures < policy.failureThreshold) {
+                return
+            }
+            
+            val now = System.currentTimeMillis()
+            if (now < openUntil) {
+                throw StepikClientException("Requests to $host are suspended after $failures failures in a row")
+            }
+            
+            // Half-open: let one request through and reject the others until it completes or the period passes
+            openUntil = now + policy.openCircuitMs
+        }
+        
+        @Synchronized
+        fun completed(failed: Boolean) {
+            if (!failed) {
+                failures = 0
+                return
+            }
+            
+            failures++
+            if (failures == policy.failureThreshold) {
+                logger.warn("Requests to $host are suspended for ${policy.openCircuitMs} ms")
+            }
+            if (failures >= policy.failureThreshold) {
+                openUntil = System.currentTimeMillis() + policy.openCircuitMs
+            }
+        }
+    }
+    
+    private class RetryableStatusException(statusCode: Int, val retryAfter: Long?) :
+            RuntimeException("A request returned the status code $statusCode", null, false, false)
+    
+    companion object {
+        private val logger = LoggerFactory.getLogger(RetryingTransportClient::class.java)
+        
+        private val scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "stepik-api-retry").apply { isDaemon = true }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.stepik.api.client
+
+import org.apache.http.client.utils.DateUtils
+
+/**
+ * Keeps an offset of the server clock from the local one by `Date` headers of responses.
+ * Times of cache entries are local, a conditional request translates them to the server time,
+ * so a skewed local clock doesn't make the server skip modified objects.
+ */
+class ServerClock {
+    @Volatile
+    private var offset: Long? = null
+    
+    /**
+     * Takes the offset from a `Date` header of a response which has just been received
+     */
+    fun update(date: String?) {
+        val serverTime = DateUtils.parseDate(date ?: return)?.time ?: return
+        offset = serverTime - System.currentTimeMillis()
+    }
+    
+    /**
+     * Returns the server time of a local time or `null` if no dated response has been received yet
+     */
+    fun toServerTime(localTime: Long): Long? {
+        val offset = offset ?: return null
+        return localTime + offset
+    }
+}
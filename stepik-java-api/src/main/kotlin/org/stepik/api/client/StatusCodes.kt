@@ -2,6 +2,22 @@ package org.stepik.api.client
 
 object StatusCodes {
     
+    const val SC_PARTIAL_CONTENT = 206
+    
+    const val SC_NOT_MODIFIED = 304
+    
     const val SC_UNAUTHORIZED = 401
     
+    const val SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416
+    
+    const val SC_TOO_MANY_REQUESTS = 429
+    
+    const val SC_INTERNAL_SERVER_ERROR = 500
+    
+    const val SC_BAD_GATEWAY = 502
+    
+    const val SC_SERVICE_UNAVAILABLE = 503
+    
+    const val SC_GATEWAY_TIMEOUT = 504
+    
 }
@@ -86,26 +86,95 @@ import org.stepik.api.actions.StepikViewsAction
 import org.stepik.api.actions.StepikVotesAction
 import org.stepik.api.actions.StepikWsAction
 import org.stepik.api.auth.OAuth2
+import org.stepik.api.auth.TokenManager
+import org.stepik.api.client.cache.CacheManager
+import org.stepik.api.client.cache.CacheStore
+import org.stepik.api.client.cache.ObjectCache
+import org.stepik.api.client.cache.QueryCache
+import org.stepik.api.client.metrics.RequestListener
 import org.stepik.api.client.serialization.DefaultJsonConverter
 import org.stepik.api.client.serialization.JsonConverter
 import org.stepik.api.objects.auth.TokenInfo
 import java.nio.file.Paths
+import java.util.concurrent.CopyOnWriteArrayList
 
-class StepikApiClient(transportClient: HttpTransportClient, val host: String) {
+class StepikApiClient(transportClient: TransportClient, val host: String) {
     
     val transportClient: TransportClient
     val jsonConverter: JsonConverter
     @Volatile
-    @set:Synchronized
     var tokenInfo: TokenInfo? = null
-        @Synchronized get() {
+        get() {
             if (field == null) {
-                this.tokenInfo = TokenInfo()
+                field = TokenInfo()
             }
             return field
         }
+        set(value) {
+            field = value
+            tokenManager.tokenChanged(value)
+        }
+    /**
+     * Refreshes [tokenInfo] before it expires and after a query is unauthorized
+     */
+    val tokenManager = TokenManager(this)
     var cachePath = Paths.get(System.getProperty("user.home"), ".stepik", "stepik-api", "cache")!!
+        set(value) {
+            field = value
+            val previous = cacheManager
+            previous.close()
+            cacheManager = CacheManager(value, previous.maxSize, previous.maxAge)
+            if (cacheStore === previous) {
+                cacheStore = cacheManager
+            }
+        }
+    /**
+     * Keeps the cache under [cachePath] within [CacheManager.maxSize] and [CacheManager.maxAge]
+     */
+    var cacheManager = CacheManager(cachePath)
+        private set
+    /**
+     * Defaults to [cacheManager];
+     * set a [org.stepik.api.client.cache.FileCacheStore] to keep a file per object without eviction.
+     * A store set here is kept when [cachePath] changes.
+     */
+    var cacheStore: CacheStore = cacheManager
     var isCacheEnabled = true
+    /**
+     * Expired cache entries are requested with `If-Modified-Since` and reused on a 304 response
+     */
+    var isCacheRevalidationEnabled = true
+    /**
+     * Follows `Date` headers of responses, so `If-Modified-Since` is sent in time of the server
+     */
+    val serverClock = ServerClock()
+    var objectCache = ObjectCache()
+    /**
+     * Results of list and filter queries are kept as ids for a life time of a query type
+     */
+    var isQueryCacheEnabled = true
+    var queryCache = QueryCache()
+    /**
+     * Concurrent identical GET queries and concurrent queries for the same objects share one request
+     */
+    var isRequestCoalescingEnabled = true
+    val inFlightRequests = InFlightRequests()
+    /**
+     * Queries for many ids are split into chunks of this size to keep URLs short
+     */
+    var idsChunkSize = 20
+    /**
+     * A maximum number of chunks of one query which are requested at once
+     */
+    var idsParallelism = 4
+    /**
+     * Listeners are notified about every request of queries and about cache lookups,
+     * see [org.stepik.api.client.metrics.HistogramCollector]
+     */
+    val requestListeners: MutableList<RequestListener> = CopyOnWriteArrayList()
+    
+    val poolStats: PoolStats?
+        get() = transportClient.poolStats
     
     constructor(userAgent: String, host: String) : this(HttpTransportClient.getInstance(userAgent), host)
     
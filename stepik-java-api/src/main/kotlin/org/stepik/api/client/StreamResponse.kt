@@ -0,0 +1,31 @@
+package org.stepik.api.client
+
+import org.stepik.api.client.HttpTransportClient.Companion.readContent
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.nio.charset.StandardCharsets.UTF_8
+
+/**
+ * A response whose content is read straight from the transport.
+ * The content is valid only inside a handler passed to a transport client.
+ * [attempt] is greater than one if a request was retried.
+ */
+class StreamResponse(
+        val stepikApiClient: StepikApiClient,
+        val statusCode: Int,
+        val content: InputStream,
+        val headers: Map<String, String> = emptyMap(),
+        val attempt: Int = 1) {
+    
+    fun <T> getBody(clazz: Class<T>): T? {
+        return stepikApiClient.jsonConverter.fromJson(InputStreamReader(content, UTF_8), clazz)
+    }
+    
+    fun toClientResponse(): ClientResponse {
+        return ClientResponse(stepikApiClient, statusCode, readContent(content), headers)
+    }
+    
+    fun withAttempt(attempt: Int) = StreamResponse(stepikApiClient, statusCode, content, headers, attempt)
+    
+    fun withContent(content: InputStream) = StreamResponse(stepikApiClient, statusCode, content, headers, attempt)
+}
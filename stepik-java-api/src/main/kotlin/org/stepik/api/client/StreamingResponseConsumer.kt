@@ -0,0 +1,214 @@
+package org.stepik.api.client
+
+import org.apache.http.HttpEntity
+import org.apache.http.HttpResponse
+import org.apache.http.entity.BasicHttpEntity
+import org.apache.http.entity.ContentType
+import org.apache.http.nio.ContentDecoder
+import org.apache.http.nio.IOControl
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer
+import org.apache.http.protocol.HttpContext
+import java.io.IOException
+import java.io.InputStream
+import java.io.InterruptedIOException
+import java.nio.ByteBuffer
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Future
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Completes [response] as soon as headers of a response arrive and passes its content through a pipe,
+ * so a handler reads a body while it is being received instead of after it is buffered in full.
+ *
+ * The I/O reactor suspends reading of a connection while [MAX_BUFFERED] bytes wait for a handler.
+ * The rest of a closed content is skipped, so the connection can be reused; [abort] drops the connection instead.
+ */
+internal class StreamingResponseConsumer : AbstractAsyncResponseConsumer<HttpResponse>() {
+    val response = CompletableFuture<HttpResponse>()
+    private val content = ContentPipe()
+    private var httpResponse: HttpResponse? = null
+    
+    @Volatile
+    private var execution: Future<HttpResponse>? = null
+    @Volatile
+    private var cancelled = false
+    
+    /**
+     * Attaches a request to be cancelled by [abort]
+     */
+    fun executing(execution: Future<HttpResponse>) {
+        this.execution = execution
+        if (cancelled) {
+            execution.cancel(true)
+        }
+    }
+    
+    fun abort() {
+        cancelled = true
+        execution?.cancel(true)
+        content.fail(IOException("Cancelled a request"))
+        response.cancel(false)
+    }
+    
+    fun fail(cause: Exception) {
+        content.fail(cause)
+        response.completeExceptionally(cause)
+    }
+    
+    override fun onResponseReceived(response: HttpResponse) {
+        httpResponse = response
+    }
+    
+    override fun onEntityEnclosed(entity: HttpEntity, contentType: ContentType?) {
+        val streamed = BasicHttpEntity()
+        streamed.content = content
+        streamed.contentLength = entity.contentLength
+        streamed.setContentType(entity.contentType)
+        streamed.setContentEncoding(entity.contentEncoding)
+        
+        val httpResponse = httpResponse ?: return
+        httpResponse.entity = streamed
+        response.complete(httpResponse)
+    }
+    
+    override fun onContentReceived(decoder: ContentDecoder, ioControl: IOControl) {
+        content.receive(decoder, ioControl)
+    }
+    
+    override fun buildResult(context: HttpContext): HttpResponse? {
+        content.end()
+        val httpResponse = httpResponse
+        if (httpResponse != null) {
+            response.complete(httpResponse)
+        }
+        return httpResponse
+    }
+    
+    override fun releaseResources() {
+        content.fail(IOException("A response is not complete"))
+    }
+    
+    private inner class ContentPipe : InputStream() {
+        private val lock = ReentrantLock()
+        private val changed = lock.newCondition()
+        private val chunks = ArrayDeque<ByteBuffer>()
+        private val readBuffer = ByteBuffer.allocate(CHUNK_SIZE)
+        private var buffered = 0
+        private var ended = false
+        private var closed = false
+        private var failure: Exception? = null
+        private var suspended: IOControl? = null
+        
+        /**
+         * Runs on an I/O reactor thread
+         */
+        fun receive(decoder: ContentDecoder, ioControl: IOControl) {
+            while (true) {
+                readBuffer.clear()
+                val count = decoder.read(readBuffer)
+                if (count <= 0) {
+                    return
+                }
+                readBuffer.flip()
+                val chunk = ByteBuffer.allocate(count)
+                chunk.put(readBuffer)
+                chunk.flip()
+                
+                lock.withLock {
+                    if (closed) {
+                        return@withLock
+                    }
+                    chunks.add(chunk)
+                    buffered += count
+                    changed.signalAll()
+                    
+                    if (buffered >= MAX_BUFFERED) {
+                        suspended = ioControl
+                        ioControl.suspendInput()
+                        return
+                    }
+                }
+            }
+        }
+        
+        fun end() {
+            lock.withLock {
+                ended = true
+                changed.signalAll()
+            }
+        }
+        
+        fun fail(cause: Exception) {
+            lock.withLock {
+                if (!ended && failure == null) {
+                    failure = cause
+                    changed.signalAll()
+                }
+            }
+        }
+        
+        override fun read(): Int {
+            val bytes = ByteArray(1)
+            return if (read(bytes, 0, 1) < 0) -1 else bytes[0].toInt() and 0xff
+        }
+        
+        override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+            if (length == 0) {
+                return 0
+            }
+            
+            lock.withLock {
+                while (chunks.isEmpty()) {
+                    failure?.let { throw IOException("Failed read a content", it) }
+                    if (ended) {
+                        return -1
+                    }
+                    if (closed) {
+                        throw IOException("A content is closed")
+                    }
+                    try {
+                        changed.await()
+                    } catch (e: InterruptedException) {
+                        Thread.currentThread().interrupt()
+                        throw InterruptedIOException("Interrupted reading a content")
+                    }
+                }
+                
+                val chunk = chunks.first
+                val count = Math.min(length, chunk.remaining())
+                chunk.get(bytes, offset, count)
+                if (!chunk.hasRemaining()) {
+                    chunks.removeFirst()
+                }
+                buffered -= count
+                
+                val ioControl = suspended
+                if (ioControl != null && buffered <= MAX_BUFFERED / 2) {
+                    suspended = null
+                    ioControl.requestInput()
+                }
+                return count
+            }
+        }
+        
+        override fun available() = lock.withLock { buffered }
+        
+        override fun close() {
+            lock.withLock {
+                closed = true
+                chunks.clear()
+                buffered = 0
+                changed.signalAll()
+                suspended?.requestInput()
+                suspended = null
+            }
+        }
+    }
+    
+    companion object {
+        private const val CHUNK_SIZE = 8 * 1024
+        private const val MAX_BUFFERED = 256 * 1024
+    }
+}
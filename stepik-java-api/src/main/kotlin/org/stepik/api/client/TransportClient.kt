@@ -1,6 +1,14 @@
 package org.stepik.api.client
 
+import java.util.concurrent.CompletableFuture
+
 interface TransportClient {
+    /**
+     * Statistics of a connection pool or `null` if a transport has no pool
+     */
+    val poolStats: PoolStats?
+        get() = null
+    
     fun post(stepikApiClient: StepikApiClient, url: String, body: String?): ClientResponse
     
     operator fun get(stepikApiClient: StepikApiClient, url: String): ClientResponse
@@ -15,4 +23,56 @@ interface TransportClient {
             stepikApiClient: StepikApiClient,
             url: String,
             headers: Map<String, String>?): ClientResponse
+    
+    /**
+     * Blocking transports fall back to a pool thread; non-blocking transports override it
+     */
+    fun postAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return CompletableFuture.supplyAsync { post(stepikApiClient, url, body, headers) }
+    }
+    
+    fun getAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?): CompletableFuture<ClientResponse> {
+        return CompletableFuture.supplyAsync { get(stepikApiClient, url, headers) }
+    }
+    
+    fun <R> getStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return handler(get(stepikApiClient, url, headers).toStreamResponse())
+    }
+    
+    fun <R> postStream(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): R {
+        return handler(post(stepikApiClient, url, body, headers).toStreamResponse())
+    }
+    
+    fun <R> getStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        return getAsync(stepikApiClient, url, headers).thenApply { handler(it.toStreamResponse()) }
+    }
+    
+    fun <R> postStreamAsync(
+            stepikApiClient: StepikApiClient,
+            url: String,
+            body: String?,
+            headers: Map<String, String>?,
+            handler: (StreamResponse) -> R): CompletableFuture<R> {
+        return postAsync(stepikApiClient, url, body, headers).thenApply { handler(it.toStreamResponse()) }
+    }
 }
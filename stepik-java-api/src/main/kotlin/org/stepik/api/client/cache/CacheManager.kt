@@ -0,0 +1,181 @@
+package org.stepik.api.client.cache
+
+import org.stepik.api.client.Loggable
+import java.io.Closeable
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.WRITE
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Keeps a cache under [cachePath] within a disk budget of [maxSize] bytes and drops entries older than [maxAge] ms.
+ *
+ * Entries go to a [SegmentedCacheStore] in `<cachePath>/segments`. The segments belong to one process at a time:
+ * if another IDE holds them, entries go to a [FileCacheStore] in `<cachePath>/<region>/<id>.json` instead,
+ * whose files are replaced atomically and can be shared.
+ *
+ * Eviction never runs on a request thread. It runs on a background thread every [EVICTION_PERIOD] ms
+ * and after every `maxSize / 8` written bytes, and only one process evicts the cache at a time.
+ */
+class CacheManager @JvmOverloads constructor(
+        val cachePath: Path,
+        @Volatile var maxSize: Long = DEFAULT_MAX_SIZE,
+        @Volatile var maxAge: Long = DEFAULT_MAX_AGE) : CacheStore, Closeable, Loggable {
+    
+    private val segments = SegmentedCacheStore(cachePath.resolve(SEGMENTS_DIRECTORY))
+    private val files = FileCacheStore(cachePath)
+    @Volatile
+    private var store: CacheStore? = null
+    private var evictionTask: ScheduledFuture<*>? = null
+    private val writtenBytes = AtomicLong()
+    private val evicting = AtomicBoolean()
+    private var closed = false
+    
+    /**
+     * `true` if entries are kept in segments, `false` if another process holds them
+     */
+    val isSegmented: Boolean
+        get() = delegate === segments
+    
+    private val delegate: CacheStore
+        get() = store ?: open()
+    
+    override fun get(region: String, id: String) = delegate.get(region, id)
+    
+    override fun put(region: String, id: String, content: String) {
+        delegate.put(region, id, content)
+        
+        if (writtenBytes.addAndGet(content.length.toLong()) > maxSize / 8) {
+            evictAsync()
+        }
+    }
+    
+    override fun remove(region: String, id: String) = delegate.remove(region, id)
+    
+    /**
+     * Schedules eviction unless it is running already
+     */
+    fun evictAsync(): Future<*> = scheduler.submit { evict() }
+    
+    /**
+     * Evicts entries on the calling thread and returns a count of dropped entries
+     */
+    fun evict(): Int {
+        if (!evicting.compareAndSet(false, true)) {
+            return 0
+        }
+        
+        try {
+            writtenBytes.set(0)
+            return withEvictionLock { evictLocked() } ?: 0
+        } catch (e: Exception) {
+            logger.warn("Failed evict a cache: $cachePath", e)
+            return 0
+        } finally {
+            evicting.set(false)
+        }
+    }
+    
+    @Synchronized
+    override fun close() {
+        closed = true
+        evictionTask?.cancel(false)
+        evictionTask = null
+        store = null
+        segments.close()
+    }
+    
+    private fun evictLocked(): Int {
+        var evicted = 0
+        if (store === segments) {
+            evicted += segments.evict(maxSize, maxAge)
+        }
+        
+        val segmentsSize = directorySize(cachePath.resolve(SEGMENTS_DIRECTORY))
+        val filesBudget = Math.max(0, maxSize - segmentsSize)
+        evicted += files.evict(filesBudget, maxAge, setOf(SEGMENTS_DIRECTORY))
+        
+        if (evicted > 0) {
+            logger.info("Evicted $evicted entries from a cache $cachePath")
+        }
+        return evicted
+    }
+    
+    /**
+     * Runs [action] under an exclusive lock of [EVICTION_LOCK_FILE] or returns `null` if another process holds it
+     */
+    private fun <T> withEvictionLock(action: () -> T): T? {
+        Files.createDirectories(cachePath)
+        FileChannel.open(cachePath.resolve(EVICTION_LOCK_FILE), CREATE, WRITE).use { channel ->
+            val lock = try {
+                channel.tryLock()
+            } catch (e: OverlappingFileLockException) {
+                null
+            } ?: return null
+            
+            try {
+                return action()
+            } finally {
+                lock.release()
+            }
+        }
+    }
+    
+    @Synchronized
+    private fun open(): CacheStore {
+        store?.let { return it }
+        
+        val chosen: CacheStore = if (segments.isAvailable) {
+            segments
+        } else {
+            logger.info("Cache segments are held by another process, use files in $cachePath")
+            files
+        }
+        
+        if (!closed) {
+            evictionTask = scheduler.scheduleWithFixedDelay({ evict() }, EVICTION_DELAY, EVICTION_PERIOD, MILLISECONDS)
+        }
+        store = chosen
+        return chosen
+    }
+    
+    private fun directorySize(directory: Path): Long {
+        if (!Files.isDirectory(directory)) {
+            return 0
+        }
+        
+        return try {
+            Files.newDirectoryStream(directory).use { entries ->
+                entries.filter { Files.isRegularFile(it) }.map { Files.size(it) }.sum()
+            }
+        } catch (e: IOException) {
+            0
+        }
+    }
+    
+    companion object {
+        const val DEFAULT_MAX_SIZE = 256L * 1024 * 1024
+        const val DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000
+        const val SEGMENTS_DIRECTORY = "segments"
+        const val EVICTION_DELAY = 60 * 1000L
+        const val EVICTION_PERIOD = 30 * 60 * 1000L
+        
+        private const val EVICTION_LOCK_FILE = "eviction.lock"
+        
+        private val scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "stepik-api-cache-eviction").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+            }
+        }
+    }
+}
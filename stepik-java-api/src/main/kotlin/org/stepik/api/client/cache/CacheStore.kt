@@ -0,0 +1,15 @@
+package org.stepik.api.client.cache
+
+/**
+ * A persistent storage for serialized API objects.
+ * Entries are grouped by a region (an object type) and addressed by an object id.
+ */
+interface CacheStore {
+    fun get(region: String, id: String): CacheEntry?
+    
+    fun put(region: String, id: String, content: String)
+    
+    fun remove(region: String, id: String)
+}
+
+class CacheEntry(val content: String, val updateTime: Long)
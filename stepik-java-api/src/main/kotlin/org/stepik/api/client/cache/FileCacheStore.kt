@@ -0,0 +1,129 @@
+package org.stepik.api.client.cache
+
+import org.stepik.api.client.Loggable
+import java.io.IOException
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * Keeps every entry in its own file: `<cachePath>/<region>/<id>.json`.
+ * An entry is written to a temporary file and renamed, so a reader never sees a partly written entry.
+ */
+class FileCacheStore(private val cachePath: Path) : CacheStore, Loggable {
+    
+    override fun get(region: String, id: String): CacheEntry? {
+        val file = getFile(region, id)
+        return try {
+            val updateTime = Files.getLastModifiedTime(file).toMillis()
+            CacheEntry(String(Files.readAllBytes(file), UTF_8), updateTime)
+        } catch (e: IOException) {
+            null
+        }
+    }
+    
+    override fun put(region: String, id: String, content: String) {
+        val file = getFile(region, id)
+        var temp: Path? = null
+        try {
+            Files.createDirectories(file.parent)
+            temp = Files.createTempFile(file.parent, "$id.", TEMP_EXTENSION)
+            Files.write(temp, content.toByteArray(UTF_8))
+            try {
+                Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE)
+            } catch (e: AtomicMoveNotSupportedException) {
+                Files.move(temp, file, REPLACE_EXISTING)
+            }
+        } catch (e: IOException) {
+            logger.warn("Failed write a cache entry: $file", e)
+            deleteQuietly(temp)
+        }
+    }
+    
+    override fun remove(region: String, id: String) {
+        try {
+            Files.deleteIfExists(getFile(region, id))
+        } catch (e: IOException) {
+            logger.warn("Failed remove a cache entry: $region/$id", e)
+        }
+    }
+    
+    /**
+     * Deletes entries modified earlier than [maxAge] ms ago and then the oldest entries
+     * until entries take at most [maxBytes]. Directories named in [excluded] are skipped,
+     * temporary files left by failed writes are deleted. Returns a count of deleted entries.
+     */
+    fun evict(maxBytes: Long, maxAge: Long, excluded: Set<String> = emptySet()): Int {
+        val entries = ArrayList<Pair<Path, BasicFileAttributes>>()
+        val now = System.currentTimeMillis()
+        
+        try {
+            if (!Files.isDirectory(cachePath)) {
+                return 0
+            }
+            Files.walkFileTree(cachePath, object : SimpleFileVisitor<Path>() {
+                override fun preVisitDirectory(dir: Path, attrs: BasicFileAttributes): FileVisitResult {
+                    val skip = dir != cachePath && dir.parent == cachePath && dir.fileName.toString() in excluded
+                    return if (skip) FileVisitResult.SKIP_SUBTREE else FileVisitResult.CONTINUE
+                }
+                
+                override fun visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult {
+                    val name = file.fileName.toString()
+                    if (name.endsWith(JSON_EXTENSION)) {
+                        entries.add(file to attrs)
+                    } else if (name.endsWith(TEMP_EXTENSION) &&
+                            attrs.lastModifiedTime().toMillis() < now - TEMP_FILE_LIFE_TIME) {
+                        deleteQuietly(file)
+                    }
+                    return FileVisitResult.CONTINUE
+                }
+                
+                override fun visitFileFailed(file: Path, exc: IOException) = FileVisitResult.CONTINUE
+            })
+        } catch (e: IOException) {
+            logger.warn("Failed list a cache: $cachePath", e)
+            return 0
+        }
+        
+        entries.sortBy { it.second.lastModifiedTime().toMillis() }
+        var size = entries.map { it.second.size() }.sum()
+        val expiredBefore = now - maxAge
+        var evicted = 0
+        
+        for ((file, attrs) in entries) {
+            if (size <= maxBytes && attrs.lastModifiedTime().toMillis() >= expiredBefore) {
+                break
+            }
+            if (deleteQuietly(file)) {
+                size -= attrs.size()
+                evicted++
+            }
+        }
+        
+        return evicted
+    }
+    
+    private fun deleteQuietly(file: Path?): Boolean {
+        file ?: return false
+        return try {
+            Files.deleteIfExists(file)
+        } catch (e: IOException) {
+            logger.warn("Failed remove a cache file: $file", e)
+            false
+        }
+    }
+    
+    private fun getFile(region: String, id: String) = cachePath.resolve(region).resolve("$id$JSON_EXTENSION")
+    
+    companion object {
+        private const val JSON_EXTENSION = ".json"
+        private const val TEMP_EXTENSION = ".tmp"
+        private const val TEMP_FILE_LIFE_TIME = 60 * 60 * 1000L
+    }
+}
@@ -0,0 +1,108 @@
+package org.stepik.api.client.cache
+
+import java.util.*
+
+/**
+ * A size-bounded LRU of deserialized objects keyed by an object class and an id.
+ *
+ * A weight of an entry is a length of its serialized form, so a few big steps
+ * evict as much as many small units. Cached objects are shared between callers.
+ */
+class ObjectCache(val maxWeight: Long = DEFAULT_MAX_WEIGHT) {
+    
+    private val entries = LinkedHashMap<ObjectKey, Entry>(16, 0.75f, true)
+    
+    var weight = 0L
+        @Synchronized get
+        private set
+    
+    var hits = 0L
+        @Synchronized get
+        private set
+    
+    var misses = 0L
+        @Synchronized get
+        private set
+    
+    var evictions = 0L
+        @Synchronized get
+        private set
+    
+    val size: Int
+        @Synchronized get() = entries.size
+    
+    /**
+     * @param maxAge a max age of an entry in milliseconds
+     */
+    @Synchronized
+    fun <T> get(itemClass: Class<T>, id: String, maxAge: Long): T? {
+        val key = ObjectKey(itemClass, id)
+        val entry = entries[key]
+        
+        if (entry == null) {
+            misses++
+            return null
+        }
+        
+        val age = System.currentTimeMillis() - entry.updateTime
+        if (age > maxAge) {
+            remove(key)
+            misses++
+            return null
+        }
+        
+        hits++
+        return itemClass.cast(entry.item)
+    }
+    
+    /**
+     * @param updateTime a time when the object was fetched from the server
+     */
+    @Synchronized
+    fun put(itemClass: Class<*>, id: String, item: Any, weight: Int, updateTime: Long = System.currentTimeMillis()) {
+        if (weight > maxWeight) {
+            return
+        }
+        
+        val key = ObjectKey(itemClass, id)
+        remove(key)
+        entries[key] = Entry(item, weight, updateTime)
+        this.weight += weight
+        
+        val iterator = entries.values.iterator()
+        while (this.weight > maxWeight && iterator.hasNext()) {
+            val eldest = iterator.next()
+            iterator.remove()
+            this.weight -= eldest.weight
+            evictions++
+        }
+    }
+    
+    @Synchronized
+    fun invalidate(itemClass: Class<*>, id: String) {
+        remove(ObjectKey(itemClass, id))
+    }
+    
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        weight = 0
+    }
+    
+    private fun remove(key: ObjectKey) {
+        val old = entries.remove(key) ?: return
+        weight -= old.weight
+    }
+    
+    override fun toString(): String {
+        return "ObjectCache(size=$size, weight=$weight/$maxWeight, hits=$hits, misses=$misses, evictions=$evictions)"
+    }
+    
+    private data class ObjectKey(val itemClass: Class<*>, val id: String)
+    
+    private class Entry(val item: Any, val weight: Int, val updateTime: Long)
+    
+    companion object {
+        const val DEFAULT_MAX_WEIGHT = 32L * 1024 * 1024
+    }
+}
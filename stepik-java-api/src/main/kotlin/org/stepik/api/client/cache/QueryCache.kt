@@ -0,0 +1,51 @@
+package org.stepik.api.client.cache
+
+import org.stepik.api.objects.Meta
+import java.util.*
+
+/**
+ * An LRU of results of list and filter queries keyed by a query region and normalized parameters.
+ *
+ * An entry keeps only ids of returned objects and a page meta; objects are taken from the object cache
+ * or the cache store, so a result is served locally only while all its objects are there.
+ */
+class QueryCache(val maxEntries: Int = DEFAULT_MAX_ENTRIES) {
+    
+    private val entries = object : LinkedHashMap<String, QueryCache.Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, QueryCache.Entry>) = size > maxEntries
+    }
+    
+    val size: Int
+        @Synchronized get() = entries.size
+    
+    /**
+     * @param maxAge a max age of an entry in milliseconds
+     */
+    @Synchronized
+    operator fun get(key: String, maxAge: Long): Entry? {
+        val entry = entries[key] ?: return null
+        
+        if (System.currentTimeMillis() - entry.updateTime > maxAge) {
+            entries.remove(key)
+            return null
+        }
+        
+        return entry
+    }
+    
+    @Synchronized
+    fun put(key: String, ids: List<String>, meta: Meta) {
+        entries[key] = Entry(ids, meta, System.currentTimeMillis())
+    }
+    
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+    
+    class Entry(val ids: List<String>, val meta: Meta, val updateTime: Long)
+    
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 1000
+    }
+}
@@ -0,0 +1,566 @@
+package org.stepik.api.client.cache
+
+import org.stepik.api.client.Loggable
+import java.io.EOFException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.FileLock
+import java.nio.channels.OverlappingFileLockException
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.CREATE
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.StandardOpenOption.WRITE
+import java.util.*
+import java.util.zip.CRC32
+
+/**
+ * Keeps all entries in a few append-only segment files with an in-memory index of record offsets.
+ *
+ * A record is `[body length: int][crc32 of body: int][body]`,
+ * a body is `[type: byte][update time: long][region length: short][region][id length: short][id][content]`.
+ * A newer record for the same key shadows an older one, a removal is written as a tombstone.
+ * A broken tail of a segment (for example after a crash) is truncated on loading.
+ * Shadowed records are dropped by [compact] which copies live records of one segment at a time into a new segment
+ * without blocking reads and writes. Writes never compact segments, [evict] does it.
+ *
+ * A loaded store holds an exclusive lock on [LOCK_FILE] in its directory until [close],
+ * so a store of another process with the same directory stays unavailable and keeps nothing.
+ */
+class SegmentedCacheStore(
+        private val directory: Path,
+        private val maxSegmentSize: Long = DEFAULT_MAX_SEGMENT_SIZE) : CacheStore, Loggable {
+    
+    private val index = HashMap<String, Location>()
+    private val segments = TreeMap<Int, Segment>()
+    private var loaded = false
+    private var locked = false
+    private var lockChannel: FileChannel? = null
+    private var lock: FileLock? = null
+    private var liveBytes = 0L
+    private var deadBytes = 0L
+    private var nextSegmentId = 1
+    private val compactionLock = Any()
+    
+    @Synchronized
+    override fun get(region: String, id: String): CacheEntry? {
+        if (!load()) {
+            return null
+        }
+        
+        val location = index[key(region, id)] ?: return null
+        location.accessTime = System.currentTimeMillis()
+        
+        return try {
+            val content = location.segment.read(location.contentOffset, location.contentLength)
+            CacheEntry(String(content, UTF_8), location.updateTime)
+        } catch (e: IOException) {
+            logger.warn("Failed read a cache entry: $region/$id", e)
+            null
+        }
+    }
+    
+    @Synchronized
+    override fun put(region: String, id: String, content: String) {
+        append(region, id, content.toByteArray(UTF_8), PUT_RECORD)
+    }
+    
+    @Synchronized
+    override fun remove(region: String, id: String) {
+        if (load() && key(region, id) in index) {
+            append(region, id, ByteArray(0), REMOVE_RECORD)
+        }
+    }
+    
+    val size: Int
+        @Synchronized
+        get() = if (load()) index.size else 0
+    
+    /**
+     * `false` if the directory is locked by another store
+     */
+    val isAvailable: Boolean
+        @Synchronized
+        get() = load()
+    
+    /**
+     * A size of all segments on a disk including shadowed records
+     */
+    val diskSize: Long
+        @Synchronized
+        get() = if (load()) liveBytes + deadBytes else 0
+    
+    /**
+     * Drops entries updated earlier than [maxAge] ms ago and then least recently read entries
+     * until live records take at most [maxBytes], and compacts segments if anything was dropped
+     * or shadowed records take more than live ones.
+     * Returns a count of dropped entries.
+     */
+    fun evict(maxBytes: Long, maxAge: Long): Int {
+        var compactionNeeded = false
+        val evicted = synchronized(this) {
+            if (!load()) {
+                return 0
+            }
+            
+            val expiredBefore = System.currentTimeMillis() - maxAge
+            var evicted = 0
+            for ((key, location) in index.entries.sortedBy { it.value.accessTime }) {
+                if (liveBytes <= maxBytes && location.updateTime >= expiredBefore) {
+                    continue
+                }
+                index.remove(key)
+                location.segment.liveBytes -= location.length
+                liveBytes -= location.length
+                deadBytes += location.length
+                evicted++
+            }
+            compactionNeeded = deadBytes > liveBytes && deadBytes > maxSegmentSize / 4
+            evicted
+        }
+        
+        if (evicted > 0 || compactionNeeded) {
+            compact()
+        }
+        return evicted
+    }
+    
+    /**
+     * Rewrites segments with shadowed records one at a time and deletes them.
+     * Live records of a segment are copied into a new segment without the lock of the store,
+     * entries changed meanwhile are copied again under the lock together with switching the index.
+     * Segments are compacted from the oldest one, so a dropped tombstone never uncovers a removed entry.
+     * If it is interrupted, the next loading sees the same entries in both old and new segments.
+     */
+    fun compact() {
+        synchronized(compactionLock) {
+            val lastSegmentId = synchronized(this) { nextSegmentId - 1 }
+            while (true) {
+                val compaction = startCompaction(lastSegmentId) ?: return
+                val copied = try {
+                    compaction.copy()
+                } catch (e: IOException) {
+                    logger.warn("Failed compact a cache segment: ${compaction.source.path}", e)
+                    compaction.target.delete()
+                    return
+                }
+                if (!finishCompaction(compaction, copied)) {
+                    return
+                }
+            }
+        }
+    }
+    
+    /**
+     * Seals the oldest segment with shadowed records if it is not newer than [lastSegmentId]
+     * and takes its live records
+     */
+    @Synchronized
+    private fun startCompaction(lastSegmentId: Int): Compaction? {
+        if (!load()) {
+            return null
+        }
+        
+        val source = segments.values.firstOrNull { it.size > it.liveBytes } ?: return null
+        if (source.id > lastSegmentId) {
+            return null
+        }
+        
+        source.sealed = true
+        val records = index.entries.filter { it.value.segment === source }
+                .map { it.key to it.value }
+                .sortedBy { it.second.recordOffset }
+        return Compaction(source, createSegment(), records)
+    }
+    
+    /**
+     * Switches copied entries to the new segment and deletes the old one.
+     * An entry changed or removed during copying is written to the new segment again,
+     * so its stale copy never shadows it on loading.
+     */
+    @Synchronized
+    private fun finishCompaction(compaction: Compaction, copied: List<Long>): Boolean {
+        val source = compaction.source
+        val target = compaction.target
+        if (segments[source.id] !== source) {
+            target.delete()
+            return false
+        }
+        
+        try {
+            segments[target.id] = target
+            compaction.records.forEachIndexed { i, (key, copiedLocation) ->
+                val location = index[key]
+                when {
+                    location === copiedLocation -> move(key, location, target, copied[i])
+                    location != null            -> {
+                        val record = location.segment.read(location.recordOffset, location.length)
+                        move(key, location, target, target.append(ByteBuffer.wrap(record)))
+                    }
+                    else                        -> target.append(encode(key.substringBefore('/'),
+                            key.substringAfter('/'), ByteArray(0), REMOVE_RECORD, System.currentTimeMillis()))
+                }
+            }
+        } catch (e: IOException) {
+            logger.warn("Failed compact a cache segment: ${source.path}", e)
+            return false
+        }
+        
+        if (target.size == 0L) {
+            segments.remove(target.id)
+            target.delete()
+        }
+        segments.remove(source.id)
+        source.delete()
+        deadBytes = segments.values.map { it.size - it.liveBytes }.sum()
+        return true
+    }
+    
+    private fun move(key: String, location: Location, target: Segment, position: Long) {
+        index[key] = location.movedTo(target, position)
+        location.segment.liveBytes -= location.length
+        target.liveBytes += location.length
+    }
+    
+    @Synchronized
+    fun close() {
+        segments.values.forEach { it.close() }
+        segments.clear()
+        index.clear()
+        liveBytes = 0
+        deadBytes = 0
+        loaded = false
+        locked = false
+        unlock()
+    }
+    
+    private fun append(region: String, id: String, content: ByteArray, type: Byte) {
+        if (!load()) {
+            return
+        }
+        
+        try {
+            val updateTime = System.currentTimeMillis()
+            val buffer = encode(region, id, content, type, updateTime)
+            val contentShift = buffer.limit() - content.size
+            
+            val segment = activeSegment(buffer.remaining())
+            val position = segment.append(buffer)
+            apply(Record(type, key(region, id), updateTime, segment, position, buffer.limit(), contentShift))
+        } catch (e: IOException) {
+            logger.warn("Failed write a cache entry: $region/$id", e)
+        }
+    }
+    
+    private fun encode(region: String, id: String, content: ByteArray, type: Byte, updateTime: Long): ByteBuffer {
+        val regionBytes = region.toByteArray(UTF_8)
+        val idBytes = id.toByteArray(UTF_8)
+        val bodyLength = BODY_FIXED_SIZE + regionBytes.size + idBytes.size + content.size
+        
+        val buffer = ByteBuffer.allocate(HEADER_SIZE + bodyLength)
+        buffer.putInt(bodyLength)
+                .putInt(0)
+                .put(type)
+                .putLong(updateTime)
+                .putShort(regionBytes.size.toShort())
+                .put(regionBytes)
+                .putShort(idBytes.size.toShort())
+                .put(idBytes)
+                .put(content)
+        
+        val crc = CRC32()
+        crc.update(buffer.array(), HEADER_SIZE, bodyLength)
+        buffer.putInt(Integer.BYTES, crc.value.toInt())
+        buffer.flip()
+        return buffer
+    }
+    
+    private fun activeSegment(length: Int): Segment {
+        val last = segments.lastEntry()?.value
+        if (last != null && last.fits(length)) {
+            return last
+        }
+        
+        val segment = createSegment()
+        segments[segment.id] = segment
+        return segment
+    }
+    
+    /**
+     * Creates a segment newer than all others, which is not used until it is added to [segments]
+     */
+    private fun createSegment() = openSegment(nextSegmentId)
+    
+    private fun openSegment(segmentId: Int): Segment {
+        nextSegmentId = Math.max(nextSegmentId, segmentId + 1)
+        return Segment(segmentId, directory.resolve(String.format(SEGMENT_NAME_FORMAT, segmentId)))
+    }
+    
+    private fun load(): Boolean {
+        if (loaded || locked) {
+            return loaded
+        }
+        
+        try {
+            Files.createDirectories(directory)
+            if (!lock()) {
+                logger.info("A cache $directory is used by another process")
+                locked = true
+                return false
+            }
+            
+            val segmentIds = Files.newDirectoryStream(directory, "*$SEGMENT_EXTENSION").use { files ->
+                files.mapNotNull { parseSegmentId(it) }
+            }
+            
+            segmentIds.sorted().forEach { segmentId ->
+                val segment = openSegment(segmentId)
+                segments[segmentId] = segment
+                scan(segment)
+            }
+            loaded = true
+        } catch (e: IOException) {
+            logger.warn("Failed load a cache: $directory", e)
+            close()
+        }
+        
+        return loaded
+    }
+    
+    private fun lock(): Boolean {
+        val channel = FileChannel.open(directory.resolve(LOCK_FILE), CREATE, WRITE)
+        val fileLock = try {
+            channel.tryLock()
+        } catch (e: OverlappingFileLockException) {
+            null
+        } catch (e: IOException) {
+            channel.close()
+            throw e
+        }
+        
+        if (fileLock == null) {
+            channel.close()
+            return false
+        }
+        
+        lockChannel = channel
+        lock = fileLock
+        return true
+    }
+    
+    private fun unlock() {
+        try {
+            lock?.release()
+            lockChannel?.close()
+        } catch (e: IOException) {
+            logger.warn("Failed unlock a cache: $directory", e)
+        }
+        lock = null
+        lockChannel = null
+    }
+    
+    private fun scan(segment: Segment) {
+        var position = 0L
+        
+        while (position < segment.size) {
+            val record = readRecord(segment, position) ?: break
+            apply(record)
+            position += record.length
+        }
+        
+        if (position < segment.size) {
+            logger.warn("A cache segment ${segment.path} is broken at $position and will be truncated")
+            segment.truncate(position)
+        }
+    }
+    
+    private fun readRecord(segment: Segment, position: Long): Record? {
+        if (position + HEADER_SIZE > segment.size) {
+            return null
+        }
+        
+        val header = ByteBuffer.wrap(segment.read(position, HEADER_SIZE))
+        val bodyLength = header.int
+        val checksum = header.int
+        
+        if (bodyLength < BODY_FIXED_SIZE || position + HEADER_SIZE + bodyLength > segment.size) {
+            return null
+        }
+        
+        val bodyBytes = segment.read(position + HEADER_SIZE, bodyLength)
+        val crc = CRC32()
+        crc.update(bodyBytes)
+        if (crc.value.toInt() != checksum) {
+            return null
+        }
+        
+        val body = ByteBuffer.wrap(bodyBytes)
+        val type = body.get()
+        val updateTime = body.long
+        val region = readString(body)
+        val id = readString(body)
+        
+        return Record(type, key(region, id), updateTime, segment, position, HEADER_SIZE + bodyLength,
+                HEADER_SIZE + body.position())
+    }
+    
+    private fun readString(buffer: ByteBuffer): String {
+        val length = buffer.short.toInt()
+        val bytes = ByteArray(length)
+        buffer.get(bytes)
+        return String(bytes, UTF_8)
+    }
+    
+    private fun apply(record: Record) {
+        val old = if (record.type == PUT_RECORD) {
+            index.put(record.key, Location(record.segment, record.position, record.length, record.contentShift,
+                    record.updateTime))
+        } else {
+            index.remove(record.key)
+        }
+        
+        if (old != null) {
+            old.segment.liveBytes -= old.length
+            liveBytes -= old.length
+            deadBytes += old.length
+        }
+        
+        if (record.type == PUT_RECORD) {
+            record.segment.liveBytes += record.length
+            liveBytes += record.length
+        } else {
+            deadBytes += record.length
+        }
+    }
+    
+    private fun key(region: String, id: String) = "$region/$id"
+    
+    private fun parseSegmentId(file: Path): Int? {
+        val name = file.fileName.toString()
+        return name.removePrefix(SEGMENT_PREFIX)
+                .removeSuffix(SEGMENT_EXTENSION)
+                .toIntOrNull()
+    }
+    
+    /**
+     * Live records of a sealed [source] segment ordered by offsets to be copied into [target]
+     */
+    private class Compaction(val source: Segment, val target: Segment, val records: List<Pair<String, Location>>) {
+        
+        /**
+         * Copies records into [target] and returns their new offsets
+         */
+        fun copy(): List<Long> {
+            return records.map { (_, location) ->
+                val record = source.read(location.recordOffset, location.length)
+                target.append(ByteBuffer.wrap(record))
+            }
+        }
+    }
+    
+    private class Record(
+            val type: Byte,
+            val key: String,
+            val updateTime: Long,
+            val segment: Segment,
+            val position: Long,
+            val length: Int,
+            val contentShift: Int)
+    
+    private class Location(
+            val segment: Segment,
+            val recordOffset: Long,
+            val length: Int,
+            private val contentShift: Int,
+            val updateTime: Long,
+            var accessTime: Long = updateTime) {
+        
+        val contentOffset: Long
+            get() = recordOffset + contentShift
+        
+        val contentLength: Int
+            get() = length - contentShift
+        
+        fun movedTo(segment: Segment, recordOffset: Long) =
+                Location(segment, recordOffset, length, contentShift, updateTime, accessTime)
+    }
+    
+    private inner class Segment(val id: Int, val path: Path) {
+        private val channel = FileChannel.open(path, CREATE, READ, WRITE)
+        
+        var size = channel.size()
+            private set
+        
+        /**
+         * A size of records which are in the index
+         */
+        var liveBytes = 0L
+        
+        /**
+         * A sealed segment is being compacted and gets no more records
+         */
+        var sealed = false
+        
+        fun fits(length: Int) = !sealed && (size == 0L || size + length <= maxSegmentSize)
+        
+        fun read(position: Long, length: Int): ByteArray {
+            val buffer = ByteBuffer.allocate(length)
+            var offset = position
+            while (buffer.hasRemaining()) {
+                val count = channel.read(buffer, offset)
+                if (count < 0) {
+                    throw EOFException("Unexpected end of a cache segment: $path")
+                }
+                offset += count
+            }
+            return buffer.array()
+        }
+        
+        fun append(buffer: ByteBuffer): Long {
+            val position = size
+            var offset = position
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset)
+            }
+            size = offset
+            return position
+        }
+        
+        fun truncate(position: Long) {
+            channel.truncate(position)
+            size = position
+        }
+        
+        fun close() {
+            try {
+                channel.close()
+            } catch (e: IOException) {
+                logger.warn("Failed close a cache segment: $path", e)
+            }
+        }
+        
+        fun delete() {
+            close()
+            try {
+                Files.deleteIfExists(path)
+            } catch (e: IOException) {
+                logger.warn("Failed delete a cache segment: $path", e)
+            }
+        }
+    }
+    
+    companion object {
+        const val DEFAULT_MAX_SEGMENT_SIZE = 16L * 1024 * 1024
+        const val LOCK_FILE = "cache.lock"
+        
+        private const val SEGMENT_PREFIX = "segment-"
+        private const val SEGMENT_EXTENSION = ".seg"
+        private const val SEGMENT_NAME_FORMAT = "$SEGMENT_PREFIX%08d$SEGMENT_EXTENSION"
+        private const val HEADER_SIZE = 2 * Integer.BYTES
+        private const val BODY_FIXED_SIZE = 1 + java.lang.Long.BYTES + 2 * java.lang.Short.BYTES
+        private const val PUT_RECORD: Byte = 0
+        private const val REMOVE_RECORD: Byte = 1
+    }
+}
@@ -0,0 +1,82 @@
+package org.stepik.api.client.metrics
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit.NANOSECONDS
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collects latency histograms and counters per endpoint in memory.
+ * Register it with [org.stepik.api.client.StepikApiClient.requestListeners] and print [dump] when needed.
+ */
+class HistogramCollector : RequestListener {
+    private val endpoints = ConcurrentHashMap<String, EndpointStats>()
+    
+    override fun requestCompleted(event: RequestEvent) {
+        val stats = stats("${event.method} ${event.endpoint}")
+        stats.totalTime.record(NANOSECONDS.toMicros(event.totalNanos))
+        if (event.statusCode != 0) {
+            stats.timeToFirstByte.record(NANOSECONDS.toMicros(event.timeToFirstByteNanos))
+        }
+        stats.bytes.addAndGet(event.bytes)
+        stats.retries.addAndGet(event.retries.toLong())
+        if (event.error != null || event.statusCode / 100 != 2) {
+            stats.failures.incrementAndGet()
+        }
+    }
+    
+    override fun cacheLookedUp(endpoint: String, hits: Int, misses: Int) {
+        val stats = stats("GET $endpoint")
+        stats.cacheHits.addAndGet(hits.toLong())
+        stats.cacheMisses.addAndGet(misses.toLong())
+    }
+    
+    /**
+     * Returns statistics of an endpoint like `GET /api/steps/{id}` or `null` if it was not requested
+     */
+    operator fun get(endpoint: String): EndpointStats? = endpoints[endpoint]
+    
+    val endpointNames: Set<String>
+        get() = endpoints.keys.toSortedSet()
+    
+    fun reset() {
+        endpoints.clear()
+    }
+    
+    /**
+     * Formats a table with a row per endpoint; times are in milliseconds
+     */
+    fun dump(): String {
+        val builder = StringBuilder()
+        builder.append(String.format(HEADER_FORMAT, "endpoint", "count", "fail", "retry", "hit", "miss", "kbytes",
+                "ttfb p50", "p50", "p90", "p99", "max"))
+        
+        endpoints.entries.sortedBy { it.key }.forEach { (name, stats) ->
+            val total = stats.totalTime
+            builder.append(String.format(ROW_FORMAT, name, total.totalCount, stats.failures.get(),
+                    stats.retries.get(), stats.cacheHits.get(), stats.cacheMisses.get(), stats.bytes.get() / 1024,
+                    millis(stats.timeToFirstByte.percentile(50.0)), millis(total.percentile(50.0)),
+                    millis(total.percentile(90.0)), millis(total.percentile(99.0)), millis(total.maxValue)))
+        }
+        
+        return builder.toString()
+    }
+    
+    private fun stats(name: String) = endpoints.computeIfAbsent(name) { EndpointStats() }
+    
+    private fun millis(micros: Long) = micros / 1000.0
+    
+    class EndpointStats {
+        val totalTime = LatencyHistogram()
+        val timeToFirstByte = LatencyHistogram()
+        val bytes = AtomicLong()
+        val retries = AtomicLong()
+        val failures = AtomicLong()
+        val cacheHits = AtomicLong()
+        val cacheMisses = AtomicLong()
+    }
+    
+    companion object {
+        private const val HEADER_FORMAT = "%-40s %7s %5s %5s %7s %7s %8s %9s %9s %9s %9s %9s%n"
+        private const val ROW_FORMAT = "%-40s %7d %5d %5d %7d %7d %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n"
+    }
+}
@@ -0,0 +1,80 @@
+package org.stepik.api.client.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A lock-free histogram of microsecond values with a relative error below 1/[SUB_BUCKETS]:
+ * each power of two is split into [SUB_BUCKETS] linear sub-buckets, like in HdrHistogram.
+ */
+class LatencyHistogram {
+    private val counts = AtomicLongArray(BUCKETS)
+    private val count = AtomicLong()
+    private val sum = AtomicLong()
+    private val max = AtomicLong()
+    
+    val totalCount: Long
+        get() = count.get()
+    
+    val mean: Double
+        get() {
+            val count = count.get()
+            return if (count == 0L) 0.0 else sum.get().toDouble() / count
+        }
+    
+    val maxValue: Long
+        get() = max.get()
+    
+    fun record(micros: Long) {
+        val value = Math.max(0, micros)
+        counts.incrementAndGet(indexOf(value))
+        count.incrementAndGet()
+        sum.addAndGet(value)
+        max.accumulateAndGet(value, Math::max)
+    }
+    
+    /**
+     * Returns an upper bound of the bucket which holds the [percentile] (0..100)
+     */
+    fun percentile(percentile: Double): Long {
+        val total = count.get()
+        if (total == 0L) {
+            return 0
+        }
+        
+        val rank = Math.max(1, Math.ceil(total * percentile / 100).toLong())
+        var seen = 0L
+        for (index in 0 until BUCKETS) {
+            seen += counts.get(index)
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(index), max.get())
+            }
+        }
+        return max.get()
+    }
+    
+    companion object {
+        private const val SUB_BUCKET_BITS = 4
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        private const val BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+        
+        private fun indexOf(value: Long): Int {
+            if (value < SUB_BUCKETS) {
+                return value.toInt()
+            }
+            val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = magnitude - SUB_BUCKET_BITS
+            val subBucket = (value ushr shift).toInt() - SUB_BUCKETS
+            return (shift + 1) * SUB_BUCKETS + subBucket
+        }
+        
+        private fun upperBoundOf(index: Int): Long {
+            if (index < SUB_BUCKETS) {
+                return index.toLong()
+            }
+            val shift = index / SUB_BUCKETS - 1
+            val subBucket = index % SUB_BUCKETS + SUB_BUCKETS
+            return ((subBucket + 1).toLong() shl shift) - 1
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.stepik.api.client.metrics
+
+/**
+ * A measurement of one request.
+ * [timeToFirstByteNanos] is a time until a response is handed over; transports which buffer an entity
+ * hand it over after the last byte. [totalNanos] includes reading and parsing of the body.
+ * [statusCode] is `0` if no response was received.
+ */
+class RequestEvent(
+        val method: String,
+        val endpoint: String,
+        val statusCode: Int,
+        val bytes: Long,
+        val timeToFirstByteNanos: Long,
+        val totalNanos: Long,
+        val retries: Int,
+        val error: Throwable?) {
+    
+    companion object {
+        private val ID_SEGMENT = Regex("/(\\d+|\\d+-\\d+)(?=/|$)")
+        
+        /**
+         * Reduces a URL to a path template: `https://stepik.org/api/steps/12?page=2` is `/api/steps/{id}`
+         */
+        fun endpointOf(url: String): String {
+            val path = url.substringBefore('?')
+                    .substringAfter("://")
+                    .let { if (it.contains('/')) it.substring(it.indexOf('/')) else "/" }
+            return ID_SEGMENT.replace(path, "/{id}")
+        }
+    }
+}
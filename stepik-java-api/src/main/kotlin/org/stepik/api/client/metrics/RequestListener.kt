@@ -0,0 +1,13 @@
+package org.stepik.api.client.metrics
+
+/**
+ * Receives measurements of queries. It is called on transport threads and must be fast and thread-safe.
+ */
+interface RequestListener {
+    fun requestCompleted(event: RequestEvent)
+    
+    /**
+     * Reports how many objects of a query for ids were taken from the cache instead of a request
+     */
+    fun cacheLookedUp(endpoint: String, hits: Int, misses: Int)
+}
@@ -0,0 +1,75 @@
+package org.stepik.api.client.metrics
+
+import org.stepik.api.client.Loggable
+import org.stepik.api.client.StreamResponse
+import java.io.FilterInputStream
+import java.io.InputStream
+
+/**
+ * Measures one request and reports it to [listeners] on [complete]
+ */
+internal class RequestMeasurement(
+        private val listeners: List<RequestListener>,
+        private val method: String,
+        url: String) : Loggable {
+    
+    private val endpoint = RequestEvent.endpointOf(url)
+    private val start = System.nanoTime()
+    @Volatile
+    private var firstByteNanos = 0L
+    @Volatile
+    private var statusCode = 0
+    @Volatile
+    private var attempt = 1
+    @Volatile
+    private var content: CountingInputStream? = null
+    
+    fun <R> handle(response: StreamResponse, handler: (StreamResponse) -> R): R {
+        firstByteNanos = System.nanoTime() - start
+        statusCode = response.statusCode
+        attempt = response.attempt
+        val counting = CountingInputStream(response.content)
+        content = counting
+        return handler(response.withContent(counting))
+    }
+    
+    fun complete(error: Throwable?) {
+        val event = RequestEvent(method, endpoint, statusCode, content?.count ?: 0, firstByteNanos,
+                System.nanoTime() - start, attempt - 1, error)
+        listeners.forEach {
+            try {
+                it.requestCompleted(event)
+            } catch (e: RuntimeException) {
+                logger.warn("A request listener failed", e)
+            }
+        }
+    }
+    
+    private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+        @Volatile
+        var count = 0L
+            private set
+        
+        override fun read(): Int {
+            val value = super.read()
+            if (value >= 0) {
+                count++
+            }
+            return value
+        }
+        
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val read = super.read(b, off, len)
+            if (read > 0) {
+                count += read
+            }
+            return read
+        }
+        
+        override fun skip(n: Long): Long {
+            val skipped = super.skip(n)
+            count += skipped
+            return skipped
+        }
+    }
+}
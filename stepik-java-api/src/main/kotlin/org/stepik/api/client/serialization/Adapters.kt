@@ -10,6 +10,7 @@ import org.stepik.api.objects.steps.Step
 import org.stepik.api.objects.submissions.Submission
 import org.stepik.api.toDate
 import org.stepik.api.toIsoFormat
+import java.time.Instant
 import java.util.*
 
 class DefaultAsEpochDateAdapter : TypeAdapter<Date>() {
@@ -23,12 +24,11 @@ class DefaultAsEpochDateAdapter : TypeAdapter<Date>() {
     }
     
     override fun read(input: JsonReader): Date {
-        return if (input.peek() === JsonToken.NULL) {
+        if (input.peek() === JsonToken.NULL) {
             input.skipValue()
-            ""
-        } else {
-            input.nextString()
-        }.toDate()
+            return Instant.EPOCH.toDate()
+        }
+        return input.nextString().toDate()
     }
     
 }
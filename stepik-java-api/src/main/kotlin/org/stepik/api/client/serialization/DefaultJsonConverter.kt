@@ -2,7 +2,9 @@ package org.stepik.api.client.serialization
 
 import com.google.gson.Gson
 import com.google.gson.GsonBuilder
+import com.google.gson.JsonIOException
 import com.google.gson.JsonSyntaxException
+import com.google.gson.stream.JsonReader
 import org.stepik.api.client.Loggable
 import org.stepik.api.objects.attempts.Dataset
 import org.stepik.api.objects.attempts.DatasetDeserializer
@@ -12,9 +14,20 @@ import org.stepik.api.objects.submissions.Feedback
 import org.stepik.api.objects.submissions.FeedbackDeserializer
 import org.stepik.api.objects.submissions.Reply
 import org.stepik.api.objects.submissions.ReplyDeserializer
+import java.io.Reader
 
 object DefaultJsonConverter : JsonConverter, Loggable {
+    /**
+     * Hot objects are read by streaming adapters, see [StreamingAdapterFactory]
+     */
     internal val gson: Gson = GsonBuilder()
+            .registerTypeAdapterFactory(StreamingAdapterFactory())
+            .create()
+    
+    /**
+     * Reads all objects by reflection and [com.google.gson.JsonDeserializer]s
+     */
+    private val reflectiveGson: Gson = GsonBuilder()
             .registerTypeAdapter(Dataset::class.java, DatasetDeserializer())
             .registerTypeAdapter(Reply::class.java, ReplyDeserializer())
             .registerTypeAdapter(Feedback::class.java, FeedbackDeserializer())
@@ -22,27 +35,45 @@ object DefaultJsonConverter : JsonConverter, Loggable {
             .create()
     
     private val pretty_gson: Gson = GsonBuilder()
-            .registerTypeAdapter(Dataset::class.java, DatasetDeserializer())
-            .registerTypeAdapter(Reply::class.java, ReplyDeserializer())
-            .registerTypeAdapter(Feedback::class.java, FeedbackDeserializer())
-            .registerTypeAdapter(BlockView::class.java, BlockViewDeserializer())
+            .registerTypeAdapterFactory(StreamingAdapterFactory())
             .setPrettyPrinting()
             .serializeNulls()
             .create()
     
+    /**
+     * Disable it to fall back to the reflective reading
+     */
+    @Volatile
+    var isStreamingAdaptersEnabled = true
+    
+    private val readingGson: Gson
+        get() = if (isStreamingAdaptersEnabled) gson else reflectiveGson
+    
     override fun <T> fromJson(json: String?, clazz: Class<T>): T? {
         if (json == null) {
             return null
         }
         
         return try {
-            gson.fromJson(json, clazz)
+            readingGson.fromJson(json, clazz)
         } catch (e: JsonSyntaxException) {
             logger.warn("Failed ${clazz.simpleName} fromJson $json ", e)
             null
         }
     }
     
+    override fun <T> fromJson(reader: Reader, clazz: Class<T>): T? {
+        return try {
+            readingGson.fromJson<T>(JsonReader(reader), clazz)
+        } catch (e: JsonSyntaxException) {
+            logger.warn("Failed ${clazz.simpleName} fromJson a stream", e)
+            null
+        } catch (e: JsonIOException) {
+            logger.warn("Failed ${clazz.simpleName} fromJson a stream", e)
+            null
+        }
+    }
+    
     override fun toJson(any: Any?, pretty: Boolean): String {
         return (if (pretty) pretty_gson else gson).toJson(any)
     }
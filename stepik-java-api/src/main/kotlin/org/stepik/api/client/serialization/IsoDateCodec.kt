@@ -0,0 +1,182 @@
+package org.stepik.api.client.serialization
+
+import java.util.*
+
+/**
+ * A thread-safe codec of ISO-8601 timestamps like `2018-02-26T05:46:28Z`.
+ * It parses characters in place and reports a malformed text with `null` instead of an exception.
+ * Fractions of a second are kept up to milliseconds, offsets like `+03:00` are accepted,
+ * a timestamp without an offset is in UTC.
+ */
+object IsoDateCodec {
+    private const val MILLIS_PER_SECOND = 1000L
+    private const val MILLIS_PER_DAY = 86_400_000L
+    private const val SECONDS_PER_DAY = 86_400
+    
+    fun parse(text: CharSequence?): Date? {
+        val millis = parseMillis(text ?: return null)
+        return if (millis == null) null else Date(millis)
+    }
+    
+    /**
+     * Returns milliseconds since the epoch or `null` if [text] is not a timestamp
+     */
+    fun parseMillis(text: CharSequence): Long? {
+        if (text.length < 19 || text[4] != '-' || text[7] != '-' || (text[10] != 'T' && text[10] != 't') ||
+                text[13] != ':' || text[16] != ':') {
+            return null
+        }
+        
+        val year = digits(text, 0, 4)
+        val month = digits(text, 5, 2)
+        val day = digits(text, 8, 2)
+        val hour = digits(text, 11, 2)
+        val minute = digits(text, 14, 2)
+        val second = digits(text, 17, 2)
+        if (year < 0 || month !in 1..12 || day < 1 || day > daysInMonth(year, month) ||
+                hour !in 0..23 || minute !in 0..59 || second !in 0..59) {
+            return null
+        }
+        
+        var position = 19
+        var millis = 0
+        if (position < text.length && text[position] == '.') {
+            position++
+            val start = position
+            while (position < text.length && text[position] in '0'..'9') {
+                if (position - start < 3) {
+                    millis = millis * 10 + (text[position] - '0')
+                }
+                position++
+            }
+            if (position == start) {
+                return null
+            }
+            repeat(3 - Math.min(position - start, 3)) { millis *= 10 }
+        }
+        
+        val offsetSeconds = parseOffset(text, position) ?: return null
+        val seconds = epochDay(year, month, day) * SECONDS_PER_DAY +
+                hour * 3600 + minute * 60 + second - offsetSeconds
+        return seconds * MILLIS_PER_SECOND + millis
+    }
+    
+    /**
+     * Formats [date] in UTC with a precision of seconds, as the API returns dates
+     */
+    fun format(date: Date): String {
+        val millis = date.time
+        val epochDay = Math.floorDiv(millis, MILLIS_PER_DAY)
+        val secondOfDay = (Math.floorMod(millis, MILLIS_PER_DAY) / MILLIS_PER_SECOND).toInt()
+        
+        // Converts days to a civil date, see http://howardhinnant.github.io/date_algorithms.html
+        val shifted = epochDay + 719468
+        val era = Math.floorDiv(shifted, 146097L)
+        val dayOfEra = shifted - era * 146097
+        val yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365
+        val dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100)
+        val monthIndex = (5 * dayOfYear + 2) / 153
+        val day = (dayOfYear - (153 * monthIndex + 2) / 5 + 1).toInt()
+        val month = (if (monthIndex < 10) monthIndex + 3 else monthIndex - 9).toInt()
+        val year = yearOfEra + era * 400 + (if (month <= 2) 1 else 0)
+        
+        if (year !in 0..9999) {
+            return String.format("%04d-%02d-%02dT%02d:%02d:%02dZ", year, month, day,
+                    secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60)
+        }
+        
+        val chars = CharArray(20)
+        put(chars, 0, year.toInt(), 4)
+        chars[4] = '-'
+        put(chars, 5, month, 2)
+        chars[7] = '-'
+        put(chars, 8, day, 2)
+        chars[10] = 'T'
+        put(chars, 11, secondOfDay / 3600, 2)
+        chars[13] = ':'
+        put(chars, 14, secondOfDay / 60 % 60, 2)
+        chars[16] = ':'
+        put(chars, 17, secondOfDay % 60, 2)
+        chars[19] = 'Z'
+        return String(chars)
+    }
+    
+    /**
+     * Returns an offset in seconds of a zone designator at the end of [text] or `null` if it is malformed
+     */
+    private fun parseOffset(text: CharSequence, position: Int): Int? {
+        if (position == text.length) {
+            return 0
+        }
+        
+        val sign = text[position]
+        if (sign == 'Z' || sign == 'z') {
+            return if (position + 1 == text.length) 0 else null
+        }
+        if (sign != '+' && sign != '-') {
+            return null
+        }
+        
+        val length = text.length - position
+        val hours = digits(text, position + 1, 2)
+        val minutes = when {
+            length == 6 && text[position + 3] == ':' -> digits(text, position + 4, 2)
+            length == 5                              -> digits(text, position + 3, 2)
+            length == 3                              -> 0
+            else                                     -> -1
+        }
+        if (hours !in 0..18 || minutes !in 0..59) {
+            return null
+        }
+        
+        val offset = hours * 3600 + minutes * 60
+        return if (sign == '-') -offset else offset
+    }
+    
+    /**
+     * Returns a non-negative number of [count] decimal digits at [start] or `-1`
+     */
+    private fun digits(text: CharSequence, start: Int, count: Int): Int {
+        if (start + count > text.length) {
+            return -1
+        }
+        
+        var value = 0
+        for (i in start until start + count) {
+            val char = text[i]
+            if (char !in '0'..'9') {
+                return -1
+            }
+            value = value * 10 + (char - '0')
+        }
+        return value
+    }
+    
+    private fun put(chars: CharArray, start: Int, value: Int, count: Int) {
+        var rest = value
+        for (i in start + count - 1 downTo start) {
+            chars[i] = '0' + rest % 10
+            rest /= 10
+        }
+    }
+    
+    private fun daysInMonth(year: Int, month: Int): Int {
+        return when (month) {
+            2           -> if (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) 29 else 28
+            4, 6, 9, 11 -> 30
+            else        -> 31
+        }
+    }
+    
+    /**
+     * Converts a civil date to days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private fun epochDay(year: Int, month: Int, day: Int): Long {
+        val shiftedYear = (if (month <= 2) year - 1 else year).toLong()
+        val era = Math.floorDiv(shiftedYear, 400L)
+        val yearOfEra = shiftedYear - era * 400
+        val dayOfYear = (153 * (if (month > 2) month - 3 else month + 9) + 2) / 5 + day - 1
+        val dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear
+        return era * 146097 + dayOfEra - 719468
+    }
+}
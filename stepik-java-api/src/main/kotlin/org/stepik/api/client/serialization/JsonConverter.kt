@@ -1,7 +1,11 @@
 package org.stepik.api.client.serialization
 
+import java.io.Reader
+
 interface JsonConverter {
     fun <T> fromJson(json: String?, clazz: Class<T>): T?
     
+    fun <T> fromJson(reader: Reader, clazz: Class<T>): T?
+    
     fun toJson(any: Any?, pretty: Boolean = false): String
 }
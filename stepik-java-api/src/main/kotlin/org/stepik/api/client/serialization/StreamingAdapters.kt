@@ -0,0 +1,328 @@
+package org.stepik.api.client.serialization
+
+import com.google.gson.Gson
+import com.google.gson.TypeAdapter
+import com.google.gson.TypeAdapterFactory
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import org.stepik.api.Utils
+import org.stepik.api.objects.attempts.Component
+import org.stepik.api.objects.attempts.Dataset
+import org.stepik.api.objects.attempts.StringPair
+import org.stepik.api.objects.steps.BlockView
+import org.stepik.api.objects.steps.BlockViewOptions
+import org.stepik.api.objects.steps.Step
+import org.stepik.api.objects.steps.Video
+import org.stepik.api.objects.submissions.Attachment
+import org.stepik.api.objects.submissions.Choice
+import org.stepik.api.objects.submissions.Feedback
+import org.stepik.api.objects.submissions.Reply
+import org.stepik.api.objects.submissions.Submission
+
+/**
+ * Hand-written adapters which read hot objects straight from a [JsonReader],
+ * without reflection and without an intermediate [com.google.gson.JsonElement] tree.
+ * Objects are written by the reflective adapter, so cached content keeps its format.
+ */
+internal class StreamingAdapterFactory : TypeAdapterFactory {
+    @Suppress("UNCHECKED_CAST")
+    override fun <T> create(gson: Gson, type: TypeToken<T>): TypeAdapter<T>? {
+        val delegate = gson.getDelegateAdapter(this, type)
+        val adapter: TypeAdapter<*> = when (type.rawType) {
+            Step::class.java       -> StepAdapter(gson, delegate as TypeAdapter<Step>)
+            Submission::class.java -> SubmissionAdapter(gson, delegate as TypeAdapter<Submission>)
+            Reply::class.java      -> ReplyAdapter(gson, delegate as TypeAdapter<Reply>)
+            Feedback::class.java   -> FeedbackAdapter(gson, delegate as TypeAdapter<Feedback>)
+            Dataset::class.java    -> DatasetAdapter(gson, delegate as TypeAdapter<Dataset>)
+            BlockView::class.java  -> BlockViewAdapter(gson, delegate as TypeAdapter<BlockView>)
+            else                   -> return null
+        }
+        return adapter as TypeAdapter<T>
+    }
+}
+
+private abstract class StreamingObjectAdapter<T>(private val delegate: TypeAdapter<T>) : TypeAdapter<T>() {
+    override fun write(out: JsonWriter, value: T?) {
+        delegate.write(out, value)
+    }
+    
+    override fun read(input: JsonReader): T? {
+        if (input.peek() != JsonToken.BEGIN_OBJECT) {
+            input.skipValue()
+            return null
+        }
+        
+        val value = newInstance()
+        input.beginObject()
+        while (input.hasNext()) {
+            readField(input, input.nextName(), value)
+        }
+        input.endObject()
+        
+        return value
+    }
+    
+    protected abstract fun newInstance(): T
+    
+    /**
+     * Reads a value of the field [name] into [value] or skips it if the field is unknown
+     */
+    protected abstract fun readField(input: JsonReader, name: String, value: T)
+}
+
+private class StepAdapter(gson: Gson, delegate: TypeAdapter<Step>) : StreamingObjectAdapter<Step>(delegate) {
+    private val blockAdapter = gson.getAdapter(BlockView::class.java)
+    
+    override fun newInstance() = Step()
+    
+    override fun readField(input: JsonReader, name: String, value: Step) {
+        when (name) {
+            "id"                           -> value.id = readLong(input, value.id)
+            "is_adaptive"                  -> value.isAdaptive = readBoolean(input, value.isAdaptive)
+            "position"                     -> value.position = readInt(input, value.position)
+            "progress"                     -> value.progress = readString(input) ?: ""
+            "create_date"                  -> value.createDate = dateAdapter.read(input)
+            "update_date"                  -> value.updateDate = dateAdapter.read(input)
+            "discussions_count"            -> value.discussionsCount = readInt(input, value.discussionsCount)
+            "discussion_proxy"             -> value.discussionProxy = readString(input) ?: ""
+            "discussion_threads"           -> value.discussionThreads = readStringList(input) ?: emptyList()
+            "lesson"                       -> value.lesson = readInt(input, value.lesson)
+            "status"                       -> value.status = readString(input) ?: ""
+            "block"                        -> value.block = blockAdapter.read(input)
+            "actions"                      -> value.actions = stringMapAdapter.read(input).toMutableMap()
+            "subscriptions"                -> value.subscriptions = readStringList(input) ?: emptyList()
+            "instruction"                  -> value.instruction = readInt(input, value.instruction)
+            "session"                      -> value.session = readString(input) ?: ""
+            "instruction_type"             -> value.instructionType = readString(input) ?: ""
+            "viewed_by"                    -> value.viewedBy = readInt(input, value.viewedBy)
+            "passed_by"                    -> value.passedBy = readInt(input, value.passedBy)
+            "correct_ratio"                -> value.correctRatio = readNullableDouble(input)
+            "worth"                        -> value.worth = readNullableInt(input)
+            "is_solutions_unlocked"        -> value.isSolutionsUnlocked = readBoolean(input, value.isSolutionsUnlocked)
+            "solutions_unlocked_attempts"  ->
+                value.solutionsUnlockedAttempts = readInt(input, value.solutionsUnlockedAttempts)
+            "has_submissions_restrictions" ->
+                value.isHasSubmissionsRestrictions = readBoolean(input, value.isHasSubmissionsRestrictions)
+            "max_submissions_count"        -> value.maxSubmissionsCount = readInt(input, value.maxSubmissionsCount)
+            "variation"                    -> value.variation = readInt(input, value.variation)
+            "variations_count"             -> value.variationsCount = readInt(input, value.variationsCount)
+            // A title and a description of a step are computed
+            else                           -> input.skipValue()
+        }
+    }
+}
+
+private class SubmissionAdapter(gson: Gson, delegate: TypeAdapter<Submission>) :
+        StreamingObjectAdapter<Submission>(delegate) {
+    private val feedbackAdapter = gson.getAdapter(Feedback::class.java)
+    private val replyAdapter = gson.getAdapter(Reply::class.java)
+    
+    override fun newInstance() = Submission()
+    
+    override fun readField(input: JsonReader, name: String, value: Submission) {
+        when (name) {
+            "id"        -> value.id = readLong(input, value.id)
+            "status"    -> value.status = readString(input) ?: ""
+            "score"     -> value.score = readNullableDouble(input) ?: 0.0
+            "hint"      -> value.hint = readString(input) ?: ""
+            "feedback"  -> value.feedback = feedbackAdapter.read(input) ?: Feedback()
+            "time"      -> value.time = dateAdapter.read(input)
+            "reply"     -> value.reply = replyAdapter.read(input) ?: Reply()
+            "reply_url" -> value.replyUrl = readString(input) ?: ""
+            "attempt"   -> value.attempt = readNullableInt(input) ?: 0
+            "session"   -> value.session = readString(input) ?: ""
+            "eta"       -> value.eta = readNullableDouble(input) ?: 0.0
+            else        -> input.skipValue()
+        }
+    }
+}
+
+private class ReplyAdapter(gson: Gson, delegate: TypeAdapter<Reply>) : StreamingObjectAdapter<Reply>(delegate) {
+    private val attachmentAdapter = gson.getAdapter(Attachment::class.java)
+    private val choiceAdapter = gson.getAdapter(Choice::class.java)
+    
+    override fun newInstance() = Reply()
+    
+    override fun readField(input: JsonReader, name: String, value: Reply) {
+        when (name) {
+            "language"    -> value.setLanguage(readString(input))
+            "code"        -> value.setCode(readString(input))
+            "formula"     -> value.setFormula(readString(input))
+            "text"        -> value.setText(readString(input))
+            "number"      -> value.setNumber(readString(input))
+            "file"        -> value.setFile(readString(input))
+            "ordering"    -> value.setOrdering(readList(input) { readNullableInt(it) ?: 0 })
+            "attachments" -> value.setAttachments(readList(input) { attachmentAdapter.read(it) })
+            "files"       -> value.setFiles(readStringList(input))
+            "choices"     -> readChoices(input, value)
+            "blanks"      -> value.setBlanks(readStringList(input))
+            else          -> input.skipValue()
+        }
+    }
+    
+    /**
+     * Choices are either flags of options or objects
+     */
+    private fun readChoices(input: JsonReader, value: Reply) {
+        val choices = readList<Any>(input) {
+            if (it.peek() == JsonToken.BEGIN_OBJECT) choiceAdapter.read(it) else readBoolean(it, false)
+        }
+        if (choices != null && choices.isNotEmpty()) {
+            value.setChoices(choices)
+        }
+    }
+}
+
+private class FeedbackAdapter(gson: Gson, delegate: TypeAdapter<Feedback>) :
+        StreamingObjectAdapter<Feedback>(delegate) {
+    private val dataAdapter = gson.getAdapter(object : TypeToken<MutableMap<String, Any>>() {})
+    
+    override fun read(input: JsonReader): Feedback? {
+        if (input.peek() == JsonToken.STRING) {
+            val feedback = Feedback()
+            feedback.message = input.nextString()
+            return feedback
+        }
+        return super.read(input) ?: Feedback()
+    }
+    
+    override fun newInstance() = Feedback()
+    
+    override fun readField(input: JsonReader, name: String, value: Feedback) {
+        when (name) {
+            "message" -> value.message = readString(input) ?: value.message
+            "data"    -> value.data = dataAdapter.read(input) ?: mutableMapOf()
+            else      -> input.skipValue()
+        }
+    }
+}
+
+private class DatasetAdapter(gson: Gson, delegate: TypeAdapter<Dataset>) : StreamingObjectAdapter<Dataset>(delegate) {
+    private val pairAdapter = gson.getAdapter(StringPair::class.java)
+    private val componentAdapter = gson.getAdapter(Component::class.java)
+    
+    /**
+     * Missing flags of a dataset are `true` and missing lists of strings are empty
+     */
+    override fun newInstance(): Dataset {
+        val dataset = Dataset()
+        dataset.setMultipleChoice(null)
+        dataset.setTextDisabled(null)
+        dataset.setCheckbox(null)
+        dataset.setOptions(emptyList())
+        dataset.setRows(emptyList())
+        dataset.setColumns(emptyList())
+        return dataset
+    }
+    
+    override fun readField(input: JsonReader, name: String, value: Dataset) {
+        when (name) {
+            "is_multiple_choice" -> value.setMultipleChoice(readNullableBoolean(input))
+            "is_text_disabled"   -> value.setTextDisabled(readNullableBoolean(input))
+            "is_checkbox"        -> value.setCheckbox(readNullableBoolean(input))
+            "options"            -> value.setOptions(readStringList(input) ?: emptyList())
+            "pairs"              -> readList(input) { pairAdapter.read(it) }?.let { value.setPairs(it) }
+            "rows"               -> value.setRows(readStringList(input) ?: emptyList())
+            "columns"            -> value.setColumns(readStringList(input) ?: emptyList())
+            "description"        -> value.setDescription(readString(input))
+            "components"         -> readList(input) { componentAdapter.read(it) }?.let { value.setComponents(it) }
+            else                 -> input.skipValue()
+        }
+    }
+}
+
+private class BlockViewAdapter(gson: Gson, delegate: TypeAdapter<BlockView>) :
+        StreamingObjectAdapter<BlockView>(delegate) {
+    private val videoAdapter = gson.getAdapter(Video::class.java)
+    private val animationAdapter = gson.getAdapter(Any::class.java)
+    private val optionsAdapter = gson.getAdapter(BlockViewOptions::class.java)
+    
+    override fun newInstance() = BlockView()
+    
+    override fun readField(input: JsonReader, name: String, value: BlockView) {
+        when (name) {
+            "name"           -> value.setName(readString(input))
+            "text"           -> value.setText(readString(input)?.let { Utils.cleanString(it) })
+            "video"          -> value.setVideo(videoAdapter.read(input))
+            "animation"      -> value.setAnimation(animationAdapter.read(input))
+            "options"        -> value.setOptions(optionsAdapter.read(input))
+            "subtitle_files" -> value.setSubtitleFiles(readStringList(input))
+            else             -> input.skipValue()
+        }
+    }
+}
+
+private val dateAdapter = DefaultAsEpochDateAdapter()
+private val stringMapAdapter = DefaultAsEmptyStringStringMapAdapter()
+
+/**
+ * Returns a string or a number as a string and `null` for other values
+ */
+private fun readString(input: JsonReader): String? {
+    return when (input.peek()) {
+        JsonToken.STRING, JsonToken.NUMBER -> input.nextString()
+        else                               -> {
+            input.skipValue()
+            null
+        }
+    }
+}
+
+private fun readStringList(input: JsonReader): List<String>? = readList(input) { readString(it) ?: "" }
+
+private fun <T> readList(input: JsonReader, read: (JsonReader) -> T?): MutableList<T>? {
+    if (input.peek() != JsonToken.BEGIN_ARRAY) {
+        input.skipValue()
+        return null
+    }
+    
+    val list = mutableListOf<T>()
+    input.beginArray()
+    while (input.hasNext()) {
+        read(input)?.let { list.add(it) }
+    }
+    input.endArray()
+    
+    return list
+}
+
+private fun readNullableBoolean(input: JsonReader): Boolean? {
+    return when (input.peek()) {
+        JsonToken.BOOLEAN -> input.nextBoolean()
+        JsonToken.STRING  -> input.nextString().toBoolean()
+        else              -> {
+            input.skipValue()
+            null
+        }
+    }
+}
+
+private fun readBoolean(input: JsonReader, default: Boolean) = readNullableBoolean(input) ?: default
+
+private fun readNullableInt(input: JsonReader): Int? {
+    if (input.peek() == JsonToken.NULL) {
+        input.nextNull()
+        return null
+    }
+    return input.nextInt()
+}
+
+private fun readInt(input: JsonReader, default: Int) = readNullableInt(input) ?: default
+
+private fun readLong(input: JsonReader, default: Long): Long {
+    if (input.peek() == JsonToken.NULL) {
+        input.nextNull()
+        return default
+    }
+    return input.nextLong()
+}
+
+private fun readNullableDouble(input: JsonReader): Double? {
+    if (input.peek() == JsonToken.NULL) {
+        input.nextNull()
+        return null
+    }
+    return input.nextDouble()
+}
@@ -0,0 +1,3 @@
+package org.stepik.api.exceptions
+
+class StepikCancelledException(message: String?) : StepikClientException(message)
@@ -12,4 +12,9 @@ class TokenInfo {
     @SerializedName("refresh_token")
     var refreshToken: String? = null
     var scope: String? = null
+    /**
+     * Milliseconds since the epoch when a token expires or `0` if it is unknown, computed from [expiresIn]
+     */
+    @SerializedName("expires_at")
+    var expiresAt: Long = 0
 }
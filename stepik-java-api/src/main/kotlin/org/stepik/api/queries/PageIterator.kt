@@ -0,0 +1,50 @@
+package org.stepik.api.queries
+
+import org.stepik.api.Utils.await
+import org.stepik.api.objects.ObjectsContainer
+import java.io.Closeable
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Follows `meta.has_next` page by page. The first page is requested on the first call of [hasNext],
+ * the next page is requested as soon as the current one is returned, so it loads while the current one is processed.
+ * [close] cancels a page which is still loading.
+ */
+class PageIterator<R> internal constructor(
+        private var page: Int,
+        private val fetch: (Int) -> CompletableFuture<R>) : Iterator<R>, Closeable {
+    
+    private var started = false
+    private var next: CompletableFuture<R>? = null
+    
+    override fun hasNext(): Boolean {
+        if (!started) {
+            started = true
+            next = fetch(page)
+        }
+        return next != null
+    }
+    
+    override fun next(): R {
+        if (!hasNext()) {
+            throw NoSuchElementException()
+        }
+        
+        val items = try {
+            await(next!!)
+        } catch (e: RuntimeException) {
+            next = null
+            throw e
+        }
+        
+        page++
+        next = if ((items as ObjectsContainer<*>).meta.hasNext) fetch(page) else null
+        return items
+    }
+    
+    override fun close() {
+        started = true
+        next?.cancel(true)
+        next = null
+    }
+}
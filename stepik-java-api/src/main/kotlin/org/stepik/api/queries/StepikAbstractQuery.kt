@@ -4,12 +4,15 @@ import org.apache.http.HttpHeaders
 import org.slf4j.LoggerFactory
 import org.stepik.api.Utils
 import org.stepik.api.actions.StepikAbstractAction
-import org.stepik.api.client.ClientResponse
 import org.stepik.api.client.StatusCodes
+import org.stepik.api.client.StreamResponse
+import org.stepik.api.client.metrics.RequestEvent
+import org.stepik.api.client.metrics.RequestMeasurement
 import org.stepik.api.client.serialization.JsonConverter
 import org.stepik.api.exceptions.StepikClientException
 import org.stepik.api.exceptions.StepikUnauthorizedException
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
 
 abstract class StepikAbstractQuery<T> internal constructor(
         protected val stepikAction: StepikAbstractAction,
@@ -18,6 +21,8 @@ abstract class StepikAbstractQuery<T> internal constructor(
     
     private val params = mutableMapOf<String, List<String>>()
     
+    private val extraHeaders = mutableMapOf<String, String>()
+    
     protected abstract val url: String
     
     protected abstract val contentType: String
@@ -52,46 +57,277 @@ abstract class StepikAbstractQuery<T> internal constructor(
         params[key] = values.map { it.toString() }
     }
     
+    protected fun removeParam(key: String) {
+        params.remove(key)
+    }
+    
     protected fun getParam(key: String): List<String> {
         return params.getOrDefault(key, listOf())
     }
     
-    fun executeAsync(): CompletableFuture<T> {
-        return CompletableFuture.supplyAsync { this.execute() }
+    /**
+     * Parameters in a stable order, so equal queries have equal strings
+     */
+    protected val normalizedParams: String
+        get() = mapToGetString(params.toSortedMap())
+    
+    protected fun setHeader(name: String, value: String?) {
+        if (value == null) {
+            extraHeaders.remove(name)
+        } else {
+            extraHeaders[name] = value
+        }
+    }
+    
+    /**
+     * Auth queries are sent without waiting for a token refresh and are not retried after 401
+     */
+    protected open val usesAccessToken = true
+    
+    /**
+     * Waits for a running token refresh and retries a query once after 401 and a refresh.
+     * The url, headers and body are taken when the query is executed, a deferred or retried request
+     * only gets the current `Authorization` header, so the query may be changed right after this call.
+     */
+    open fun executeAsync(): CompletableFuture<T> {
+        val request = prepareRequest()
+        val tokenManager = stepikAction.stepikApiClient.tokenManager
+        if (!usesAccessToken || !tokenManager.canRefresh) {
+            return executeOnceAsync(request)
+        }
+        
+        val result = CompletableFuture<T>()
+        val refresh = tokenManager.awaitedRefresh()
+        if (refresh == null) {
+            executeRefreshingAsync(request, result, true)
+        } else {
+            refresh.whenComplete { _, _ -> executeRefreshingAsync(request, result, true) }
+        }
+        return result
     }
     
     open fun execute(): T {
-        val stepikApi = stepikAction.stepikApiClient
-        val transportClient = stepikApi.transportClient
+        val request = prepareRequest()
+        val tokenManager = stepikAction.stepikApiClient.tokenManager
+        if (!usesAccessToken || !tokenManager.canRefresh) {
+            return executeOnce(request)
+        }
         
-        var url = url
+        tokenManager.awaitedRefresh()?.let { Utils.await(it.handle { _, _ -> null }) }
+        val accessToken = stepikAction.stepikApiClient.tokenInfo?.accessToken
         
-        val headers = mutableMapOf<String, String>()
-        val tokenInfo = stepikApi.tokenInfo
-        val accessToken = tokenInfo?.accessToken
-        if (accessToken != null) {
-            val tokenType = tokenInfo.tokenType
-            headers[HttpHeaders.AUTHORIZATION] = "$tokenType $accessToken"
+        try {
+            return executeOnce(request)
+        } catch (e: StepikUnauthorizedException) {
+            if (accessToken == null) {
+                throw e
+            }
+            try {
+                Utils.await(tokenManager.refreshUnauthorized(accessToken))
+            } catch (refreshError: RuntimeException) {
+                throw e
+            }
+        }
+        
+        logger.info("Retry an unauthorized query to $url with a refreshed token")
+        return executeOnce(request)
+    }
+    
+    private fun executeRefreshingAsync(request: Request, result: CompletableFuture<T>, retry: Boolean) {
+        if (result.isDone) {
+            return
+        }
+        
+        val tokenManager = stepikAction.stepikApiClient.tokenManager
+        val accessToken = stepikAction.stepikApiClient.tokenInfo?.accessToken
+        val future = try {
+            executeOnceAsync(request)
+        } catch (e: RuntimeException) {
+            result.completeExceptionally(e)
+            return
         }
-        headers[HttpHeaders.CONTENT_TYPE] = contentType
         
-        var response: ClientResponse? = null
-        when (method) {
-            QueryMethod.GET  -> {
-                val ids = params[IDS_KEY]
-                if (ids?.size == 1) {
-                    if (!url.endsWith("/")) {
-                        url += "/"
+        result.whenComplete { _, _ ->
+            if (result.isCancelled) {
+                future.cancel(true)
+            }
+        }
+        
+        future.whenComplete { value, error ->
+            val cause = if (error is CompletionException && error.cause != null) error.cause!! else error
+            if (cause == null) {
+                result.complete(value)
+            } else if (retry && accessToken != null && cause is StepikUnauthorizedException) {
+                tokenManager.refreshUnauthorized(accessToken).whenComplete { _, refreshError ->
+                    if (refreshError == null) {
+                        logger.info("Retry an unauthorized query to $url with a refreshed token")
+                        executeRefreshingAsync(request, result, false)
+                    } else {
+                        result.completeExceptionally(cause)
                     }
-                    url += ids[0]
-                    params.remove(IDS_KEY)
                 }
-                if (!params.isEmpty()) {
-                    url += "?${mapToGetString()}"
+            } else {
+                result.completeExceptionally(cause)
+            }
+        }
+    }
+    
+    private fun executeOnceAsync(request: Request): CompletableFuture<T> {
+        val stepikApi = stepikAction.stepikApiClient
+        
+        val url = request.url
+        val headers = authorized(request.headers)
+        val body = request.body
+        
+        if (method == QueryMethod.GET && stepikApi.isRequestCoalescingEnabled) {
+            return stepikApi.inFlightRequests.executeAsync(requestKey(url, headers), ::copyShared) {
+                sendAsync(url, headers, body)
+            }
+        }
+        return sendAsync(url, headers, body)
+    }
+    
+    private fun executeOnce(request: Request): T {
+        val stepikApi = stepikAction.stepikApiClient
+        
+        val url = request.url
+        val headers = authorized(request.headers)
+        val body = request.body
+        
+        if (method == QueryMethod.GET && stepikApi.isRequestCoalescingEnabled) {
+            return stepikApi.inFlightRequests.execute(requestKey(url, headers), ::copyShared) {
+                send(url, headers, body)
+            }
+        }
+        return send(url, headers, body)
+    }
+    
+    private fun send(url: String, headers: Map<String, String>, body: String?): T {
+        val stepikApi = stepikAction.stepikApiClient
+        val transportClient = stepikApi.transportClient
+        val measurement = measure(url)
+        val handler = handler(url, measurement)
+        
+        val result = try {
+            when (method) {
+                QueryMethod.GET  -> transportClient.getStream(stepikApi, url, headers, handler)
+                QueryMethod.POST -> transportClient.postStream(stepikApi, url, body, headers, handler)
+            }
+        } catch (e: Throwable) {
+            measurement?.complete(e)
+            throw e
+        }
+        measurement?.complete(null)
+        return result
+    }
+    
+    private fun sendAsync(url: String, headers: Map<String, String>, body: String?): CompletableFuture<T> {
+        val stepikApi = stepikAction.stepikApiClient
+        val transportClient = stepikApi.transportClient
+        val measurement = measure(url)
+        val handler = handler(url, measurement)
+        
+        val result = when (method) {
+            QueryMethod.GET  -> transportClient.getStreamAsync(stepikApi, url, headers, handler)
+            QueryMethod.POST -> transportClient.postStreamAsync(stepikApi, url, body, headers, handler)
+        }
+        measurement?.let { result.whenComplete { _, e -> it.complete(e) } }
+        return result
+    }
+    
+    private fun handler(url: String, measurement: RequestMeasurement?): (StreamResponse) -> T {
+        if (measurement == null) {
+            return { processResponse(url, it) }
+        }
+        return { response -> measurement.handle(response) { processResponse(url, it) } }
+    }
+    
+    private fun measure(url: String): RequestMeasurement? {
+        val listeners = stepikAction.stepikApiClient.requestListeners
+        return if (listeners.isEmpty()) null else RequestMeasurement(listeners, method.name, url)
+    }
+    
+    /**
+     * Reports how many of requested objects were found in the cache
+     */
+    protected fun cacheLookedUp(hits: Int, misses: Int) {
+        val listeners = stepikAction.stepikApiClient.requestListeners
+        if (listeners.isEmpty()) {
+            return
+        }
+        
+        val endpoint = RequestEvent.endpointOf(url)
+        listeners.forEach {
+            try {
+                it.cacheLookedUp(endpoint, hits, misses)
+            } catch (e: RuntimeException) {
+                logger.warn("A request listener failed", e)
+            }
+        }
+    }
+    
+    /**
+     * Takes everything which is sent except the `Authorization` header which may change with a token refresh
+     */
+    private fun prepareRequest(): Request {
+        val headers = mutableMapOf<String, String>()
+        headers[HttpHeaders.CONTENT_TYPE] = contentType
+        headers.putAll(extraHeaders)
+        return Request(queryUrl, headers, if (method == QueryMethod.POST) body else null)
+    }
+    
+    private fun authorized(requestHeaders: Map<String, String>): Map<String, String> {
+        val headers = mutableMapOf<String, String>()
+        val authorization = authorization
+        if (authorization != null) {
+            headers[HttpHeaders.AUTHORIZATION] = authorization
+        }
+        headers.putAll(requestHeaders)
+        return headers
+    }
+    
+    protected val authorization: String?
+        get() {
+            val tokenInfo = stepikAction.stepikApiClient.tokenInfo
+            val accessToken = tokenInfo?.accessToken ?: return null
+            return "${tokenInfo.tokenType} $accessToken"
+        }
+    
+    /**
+     * Identical GET requests share one response, so a key includes everything which is sent
+     */
+    private fun requestKey(url: String, headers: Map<String, String>): String {
+        return "$method $url ${headers.toSortedMap()}"
+    }
+    
+    private val queryUrl: String
+        get() {
+            var url = url
+            if (method != QueryMethod.GET) {
+                return url
+            }
+            
+            val ids = params[IDS_KEY]
+            val queryParams = if (ids?.size == 1) {
+                if (!url.endsWith("/")) {
+                    url += "/"
                 }
-                response = transportClient[stepikApi, url, headers]
+                url += ids[0]
+                params.filterKeys { it != IDS_KEY }
+            } else {
+                params
             }
-            QueryMethod.POST -> response = transportClient.post(stepikApi, url, body, headers)
+            if (!queryParams.isEmpty()) {
+                url += "?${mapToGetString(queryParams)}"
+            }
+            return url
+        }
+    
+    private fun processResponse(url: String, response: StreamResponse): T {
+        stepikAction.stepikApiClient.serverClock.update(response.headers[HttpHeaders.DATE])
+        
+        if (response.statusCode == StatusCodes.SC_NOT_MODIFIED) {
+            return notModified(url)
         }
         
         if (response.statusCode / 100 != 2) {
@@ -105,23 +341,37 @@ abstract class StepikAbstractQuery<T> internal constructor(
             }
         }
         
-        val result = response.getBody(responseClass)
-        
         if (responseClass === VoidResult::class.java) {
             return VoidResult() as T
         }
+        
+        val result = response.getBody(responseClass)
         if (result == null) {
             throw StepikClientException("Request successfully but the response body is null: $url")
         }
         return result
     }
     
-    private fun mapToGetString(): String {
+    /**
+     * Coalesced queries share a response, every query gets a copy of it made here
+     */
+    protected open fun copyShared(result: T): T = result
+    
+    /**
+     * Called for a 304 response to a conditional request
+     */
+    protected open fun notModified(url: String): T {
+        throw StepikClientException("Query to $url returned Not Modified for an unconditional request")
+    }
+    
+    private fun mapToGetString(params: Map<String, List<String>> = this.params): String {
         return params.entries.joinToString("&") { entry ->
             Utils.mapToGetString(entry.key, entry.value)
         }
     }
     
+    private class Request(val url: String, val headers: Map<String, String>, val body: String?)
+    
     companion object {
         private val logger = LoggerFactory.getLogger(StepikAbstractQuery::class.java)
         protected const val IDS_KEY = "ids[]"
@@ -3,21 +3,37 @@ package org.stepik.api.queries.auth
 import org.stepik.api.actions.StepikAbstractAction
 import org.stepik.api.objects.auth.TokenInfo
 import org.stepik.api.queries.StepikAbstractPostQuery
+import java.util.concurrent.CompletableFuture
 
 abstract class AbstractAuthorizationPostQuery(stepikAction: StepikAbstractAction) :
         StepikAbstractPostQuery<TokenInfo>(stepikAction, TokenInfo::class.java) {
     
     override val url = "${stepikAction.stepikApiClient.host}/oauth2/token/"
     
+    override val usesAccessToken = false
+    
     override fun execute(): TokenInfo {
         val tokenInfo = super.execute()
         
-        val action = stepikAction
-        action.stepikApiClient.tokenInfo = tokenInfo
+        received(tokenInfo)
         
         return tokenInfo
     }
     
+    override fun executeAsync(): CompletableFuture<TokenInfo> {
+        return super.executeAsync().thenApply { tokenInfo ->
+            received(tokenInfo)
+            tokenInfo
+        }
+    }
+    
+    private fun received(tokenInfo: TokenInfo) {
+        if (tokenInfo.expiresIn > 0) {
+            tokenInfo.expiresAt = System.currentTimeMillis() + tokenInfo.expiresIn * 1000L
+        }
+        stepikAction.stepikApiClient.tokenInfo = tokenInfo
+    }
+    
     override val contentType = "application/x-www-form-urlencoded"
     
 }
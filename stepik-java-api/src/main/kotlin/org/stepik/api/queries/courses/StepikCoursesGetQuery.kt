@@ -44,4 +44,6 @@ class StepikCoursesGetQuery(stepikAction: StepikAbstractAction) :
     
     override val url = "${stepikAction.stepikApiClient.host}/api/courses"
     
+    override fun getQueryCacheLifeTime() = 60 * 1000L
+    
 }
@@ -44,4 +44,6 @@ class StepikLessonsGetQuery(stepikAction: StepikAbstractAction) :
     
     override val url: String = "${stepikAction.stepikApiClient.host}/api/lessons"
     
+    override fun getQueryCacheLifeTime() = 5 * 60 * 1000L
+    
 }
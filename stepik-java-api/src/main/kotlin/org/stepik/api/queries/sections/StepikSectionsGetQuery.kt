@@ -14,4 +14,6 @@ class StepikSectionsGetQuery(stepikAction: StepikAbstractAction) :
     
     override val url = "${stepikAction.stepikApiClient.host}/api/sections"
     
+    override fun getQueryCacheLifeTime() = 5 * 60 * 1000L
+    
 }
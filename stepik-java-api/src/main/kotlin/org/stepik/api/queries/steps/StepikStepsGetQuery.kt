@@ -19,4 +19,6 @@ class StepikStepsGetQuery(stepikAction: StepikAbstractAction) :
     
     override val url = "${this.stepikAction.stepikApiClient.host}/api/steps"
     
+    override fun getQueryCacheLifeTime() = 5 * 60 * 1000L
+    
 }
@@ -19,4 +19,6 @@ class StepikUnitsGetQuery(stepikAction: StepikAbstractAction) :
     
     override val url = "${stepikAction.stepikApiClient.host}/api/units"
     
+    override fun getQueryCacheLifeTime() = 5 * 60 * 1000L
+    
 }
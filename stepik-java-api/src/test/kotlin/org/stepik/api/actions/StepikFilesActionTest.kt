@@ -0,0 +1,246 @@
+package org.stepik.api.actions
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.stepik.api.client.AsyncHttpTransportClient
+import org.stepik.api.client.HttpTransportClient
+import org.stepik.api.client.RetryingTransportClient
+import org.stepik.api.client.StepikApiClient
+import org.stepik.api.client.TransportClient
+import org.stepik.api.exceptions.StepikCancelledException
+import java.net.InetSocketAddress
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class StepikFilesActionTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    
+    private lateinit var server: HttpServer
+    private lateinit var stepikApiClient: StepikApiClient
+    @Volatile
+    private var content = ByteArray(300_000).also { Random(1).nextBytes(it) }
+    @Volatile
+    private var etag = "\"v1\""
+    @Volatile
+    private var ignoreIfRange = false
+    private val ranges = mutableListOf<String?>()
+    private val slowRequests = AtomicInteger()
+    
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/dataset") { exchange ->
+            val content = content
+            val range = exchange.requestHeaders.getFirst("Range")
+            ranges.add(range)
+            exchange.responseHeaders.add("ETag", etag)
+            val matches = ignoreIfRange || exchange.requestHeaders.getFirst("If-Range") == etag
+            val start = if (range != null && matches) range.removePrefix("bytes=").removeSuffix("-").toInt() else 0
+            if (start >= content.size) {
+                exchange.responseHeaders.add("Content-Range", "bytes */${content.size}")
+                exchange.sendResponseHeaders(416, -1)
+                exchange.close()
+                return@createContext
+            }
+            if (start > 0) {
+                exchange.responseHeaders.add("Content-Range", "bytes $start-${content.size - 1}/${content.size}")
+                exchange.sendResponseHeaders(206, (content.size - start).toLong())
+            } else {
+                exchange.sendResponseHeaders(200, content.size.toLong())
+            }
+            exchange.responseBody.use { it.write(content, start, content.size - start) }
+        }
+        server.createContext("/slow") { exchange ->
+            slowRequests.incrementAndGet()
+            exchange.sendResponseHeaders(200, content.size.toLong())
+            exchange.responseBody.use {
+                it.write(content, 0, 100_000)
+                it.flush()
+                try {
+                    Thread.sleep(500)
+                    it.write(content, 100_000, content.size - 100_000)
+                } catch (e: Exception) {
+                    // The client is gone
+                }
+            }
+        }
+        server.start()
+        
+        val transportClient = HttpTransportClient.getInstance("test")
+        stepikApiClient = StepikApiClient(transportClient, "http://localhost:${server.address.port}")
+    }
+    
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+    
+    private val url
+        get() = "http://localhost:${server.address.port}/dataset"
+    
+    @Test
+    fun binaryContentIsWrittenAsIs() {
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        var total = 0L
+        
+        val size = stepikApiClient.files().download(url, target) { _, all -> total = all; true }
+        
+        assertEquals(content.size.toLong(), size)
+        assertEquals(content.size.toLong(), total)
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target)))
+        assertFalse(Files.exists(target.resolveSibling("dataset.bin.part")))
+        assertFalse(Files.exists(target.resolveSibling("dataset.bin.part.meta")))
+    }
+    
+    @Test
+    fun cancelledDownloadIsResumed() {
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        
+        assertFailsWith<StepikCancelledException> {
+            stepikApiClient.files().download(url, target) { downloaded, _ -> downloaded < 100_000 }
+        }
+        assertFalse(Files.exists(target))
+        val part = Files.size(target.resolveSibling("dataset.bin.part"))
+        assertTrue(part >= 100_000)
+        
+        stepikApiClient.files().download(url, target)
+        
+        assertEquals(listOf(null, "bytes=$part-"), ranges)
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target)))
+    }
+    
+    @Test
+    fun changedFileIsDownloadedAgain() {
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        cancelAt(url, target, 100_000)
+        val part = Files.size(target.resolveSibling("dataset.bin.part"))
+        
+        content = ByteArray(250_000).also { Random(2).nextBytes(it) }
+        etag = "\"v2\""
+        stepikApiClient.files().download(url, target)
+        
+        assertEquals(listOf(null, "bytes=$part-"), ranges)
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target)))
+    }
+    
+    @Test
+    fun partOfAnotherUrlIsDiscarded() {
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        cancelAt("$url?attempt=1", target, 100_000)
+        
+        stepikApiClient.files().download("$url?attempt=2", target)
+        
+        assertEquals(listOf<String?>(null, null), ranges)
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target)))
+    }
+    
+    @Test
+    fun partIsReportedForItsUrl() {
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        cancelAt(url, target, 100_000)
+        
+        assertTrue(stepikApiClient.files().hasPart(url, target))
+        assertFalse(stepikApiClient.files().hasPart("$url?attempt=2", target))
+        
+        stepikApiClient.files().deletePart(target)
+        assertFalse(stepikApiClient.files().hasPart(url, target))
+        assertFalse(Files.exists(target.resolveSibling("dataset.bin.part")))
+        assertFalse(Files.exists(target.resolveSibling("dataset.bin.part.meta")))
+    }
+    
+    @Test
+    fun completePartIsValidated() {
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        cancelAt(url, target, content.size.toLong())
+        
+        stepikApiClient.files().download(url, target)
+        
+        assertEquals(listOf(null, "bytes=${content.size}-"), ranges)
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target)))
+    }
+    
+    @Test
+    fun unsatisfiableRangeOfAnotherSizeRestarts() {
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        cancelAt(url, target, content.size.toLong())
+        
+        ignoreIfRange = true
+        content = ByteArray(200_000).also { Random(3).nextBytes(it) }
+        stepikApiClient.files().download(url, target)
+        
+        assertEquals(listOf(null, "bytes=300000-", null), ranges)
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target)))
+    }
+    
+    @Test
+    fun interruptedReadIsCancelledWithoutRetries() {
+        interruptSlowDownload(RetryingTransportClient(HttpTransportClient.getInstance("test")))
+    }
+    
+    @Test
+    fun interruptedAsyncReadIsCancelledWithoutRetries() {
+        interruptSlowDownload(RetryingTransportClient(AsyncHttpTransportClient.getInstance("test")))
+    }
+    
+    @Test
+    fun asyncTransportStreamsDownload() {
+        val client = StepikApiClient(AsyncHttpTransportClient.getInstance("test"), stepikApiClient.host)
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        
+        client.files().download(url, target)
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target)))
+        
+        // The server pauses for 500 ms after 100 000 bytes, a buffered response would be cancelled after it
+        val slow = temporaryFolder.root.toPath().resolve("slow.bin")
+        val start = System.nanoTime()
+        assertFailsWith<StepikCancelledException> {
+            client.files().download("http://localhost:${server.address.port}/slow", slow) { downloaded, _ ->
+                downloaded < 50_000
+            }
+        }
+        val elapsedMs = (System.nanoTime() - start) / 1_000_000
+        assertTrue(elapsedMs < 400, "Cancelled in $elapsedMs ms")
+    }
+    
+    private fun interruptSlowDownload(transportClient: TransportClient) {
+        val client = StepikApiClient(transportClient, stepikApiClient.host)
+        val target = temporaryFolder.root.toPath().resolve("dataset.bin")
+        val part = target.resolveSibling("dataset.bin.part")
+        var error: Exception? = null
+        
+        val thread = Thread {
+            try {
+                client.files().download("http://localhost:${server.address.port}/slow", target)
+            } catch (e: Exception) {
+                error = e
+            }
+        }
+        thread.start()
+        while (!Files.exists(part) || Files.size(part) == 0L) {
+            Thread.sleep(10)
+        }
+        Thread.sleep(200)
+        thread.interrupt()
+        thread.join(5_000)
+        
+        assertTrue(error is StepikCancelledException, error.toString())
+        assertEquals(1, slowRequests.get())
+    }
+    
+    private fun cancelAt(url: String, target: Path, bytes: Long) {
+        assertFailsWith<StepikCancelledException> {
+            stepikApiClient.files().download(url, target) { downloaded, _ -> downloaded < bytes }
+        }
+    }
+}
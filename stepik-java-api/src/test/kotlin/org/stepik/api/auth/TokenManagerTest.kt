@@ -0,0 +1,164 @@
+package org.stepik.api.auth
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.stepik.api.client.AsyncHttpTransportClient
+import org.stepik.api.client.StepikApiClient
+import org.stepik.api.exceptions.StepikUnauthorizedException
+import org.stepik.api.objects.auth.TokenInfo
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class TokenManagerTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    
+    private lateinit var server: HttpServer
+    private lateinit var stepikApiClient: StepikApiClient
+    private val refreshes = AtomicInteger()
+    private val unauthorized = AtomicInteger()
+    @Volatile
+    private var validToken = "new-1"
+    
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/oauth2/token/") { exchange ->
+            exchange.requestBody.use { it.readBytes() }
+            val number = refreshes.incrementAndGet()
+            Thread.sleep(100)
+            val body = """{"access_token":"new-$number","token_type":"Bearer","expires_in":36000,
+                |"refresh_token":"refresh-$number"}""".trimMargin().toByteArray(UTF_8)
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.createContext("/api/lessons") { exchange ->
+            val authorized = exchange.requestHeaders.getFirst("Authorization") == "Bearer $validToken"
+            val uri = exchange.requestURI
+            val ids = if (uri.rawQuery == null) {
+                listOf(uri.path.substringAfterLast("/"))
+            } else {
+                URLDecoder.decode(uri.rawQuery, "UTF-8").split("&")
+                        .filter { it.startsWith("ids[]=") }
+                        .map { it.substringAfter("=") }
+            }
+            val lessons = ids.joinToString(",") { """{"id":$it}""" }
+            val body = if (authorized) """{"lessons":[$lessons]}""" else """{"detail":"Unauthorized"}"""
+            if (!authorized) {
+                unauthorized.incrementAndGet()
+            }
+            val bytes = body.toByteArray(UTF_8)
+            exchange.sendResponseHeaders(if (authorized) 200 else 401, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        }
+        server.executor = Executors.newCachedThreadPool()
+        server.start()
+        
+        val transportClient = AsyncHttpTransportClient.getInstance("test")
+        stepikApiClient = StepikApiClient(transportClient, "http://localhost:${server.address.port}")
+        stepikApiClient.cachePath = temporaryFolder.root.toPath()
+        stepikApiClient.isCacheEnabled = false
+        stepikApiClient.tokenManager.clientId = "client"
+        stepikApiClient.tokenInfo = token("old", 0)
+    }
+    
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+    
+    @Test
+    fun concurrentUnauthorizedQueriesShareOneRefresh() {
+        val start = CountDownLatch(1)
+        val results = (1L..8L).map { id ->
+            CompletableFuture.supplyAsync {
+                start.await()
+                stepikApiClient.lessons().get().id(id).execute().first().id
+            }
+        }
+        start.countDown()
+        
+        assertEquals((1L..8L).toList(), results.map { it.get(10, SECONDS) })
+        assertEquals(1, refreshes.get())
+        assertEquals("new-1", stepikApiClient.tokenInfo?.accessToken)
+        assertTrue(stepikApiClient.tokenInfo!!.expiresAt > System.currentTimeMillis())
+    }
+    
+    @Test
+    fun asyncQueryIsRetriedOnce() {
+        val refreshed = CompletableFuture<TokenInfo>()
+        stepikApiClient.tokenManager.listeners.add { refreshed.complete(it) }
+        
+        val lesson = stepikApiClient.lessons().get().id(1L).executeAsync().get(10, SECONDS)
+        
+        assertEquals(1L, lesson.first().id)
+        assertEquals("refresh-1", refreshed.get(10, SECONDS).refreshToken)
+        
+        validToken = "never"
+        assertFailsWith<StepikUnauthorizedException> {
+            stepikApiClient.lessons().get().id(2L).execute()
+        }
+        assertEquals(2, refreshes.get())
+    }
+    
+    @Test
+    fun tokenIsRefreshedBeforeExpiration() {
+        stepikApiClient.tokenManager.refreshMargin = 60 * 1000L
+        stepikApiClient.tokenInfo = token("old", System.currentTimeMillis() + 60 * 1000L + 200)
+        
+        val deadline = System.currentTimeMillis() + 10_000
+        while (stepikApiClient.tokenInfo?.accessToken != "new-1" && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20)
+        }
+        
+        assertEquals("new-1", stepikApiClient.tokenInfo?.accessToken)
+        stepikApiClient.lessons().get().id(1L).execute()
+        assertEquals(0, unauthorized.get())
+        assertEquals(1, refreshes.get())
+    }
+    
+    @Test
+    fun chunksDeferredByRefreshKeepTheirIds() {
+        stepikApiClient.idsChunkSize = 2
+        val refresh = stepikApiClient.tokenManager.refreshAsync()
+        
+        val lessons = stepikApiClient.lessons().get().id(1L, 2L, 3L, 4L).executeAsync().get(10, SECONDS)
+        
+        assertTrue(refresh.isDone)
+        assertEquals(listOf(1L, 2L, 3L, 4L), lessons.items.map { it.id })
+        assertEquals(0, unauthorized.get())
+    }
+    
+    @Test
+    fun retriedChunksKeepTheirIds() {
+        stepikApiClient.idsChunkSize = 2
+        
+        val lessons = stepikApiClient.lessons().get().id(1L, 2L, 3L, 4L).executeAsync().get(10, SECONDS)
+        
+        assertEquals(listOf(1L, 2L, 3L, 4L), lessons.items.map { it.id })
+        assertEquals(2, unauthorized.get())
+        assertEquals(1, refreshes.get())
+    }
+    
+    private fun token(accessToken: String, expiresAt: Long): TokenInfo {
+        return TokenInfo().apply {
+            this.accessToken = accessToken
+            tokenType = "Bearer"
+            refreshToken = "refresh-0"
+            this.expiresAt = expiresAt
+        }
+    }
+}
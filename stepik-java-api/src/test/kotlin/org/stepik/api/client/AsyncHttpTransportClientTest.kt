@@ -0,0 +1,94 @@
+package org.stepik.api.client
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.net.InetSocketAddress
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.CompletableFuture
+import java.util.zip.GZIPOutputStream
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class AsyncHttpTransportClientTest {
+    
+    private lateinit var server: HttpServer
+    private lateinit var stepikApiClient: StepikApiClient
+    
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/api/steps") { exchange ->
+            val body = """{"path":"${exchange.requestURI}"}""".toByteArray(UTF_8)
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.createContext("/api/compressed") { exchange ->
+            val acceptEncoding = exchange.requestHeaders.getFirst("Accept-Encoding") ?: ""
+            val body = ByteArrayOutputStream()
+            if (acceptEncoding.contains("gzip")) {
+                exchange.responseHeaders.add("Content-Encoding", "gzip")
+                GZIPOutputStream(body).use { it.write(COMPRESSED_BODY.toByteArray(UTF_8)) }
+            } else {
+                body.write(COMPRESSED_BODY.toByteArray(UTF_8))
+            }
+            exchange.sendResponseHeaders(200, body.size().toLong())
+            exchange.responseBody.use { body.writeTo(it) }
+        }
+        server.start()
+        
+        val transportClient = AsyncHttpTransportClient.getInstance("test")
+        stepikApiClient = StepikApiClient(transportClient, "http://localhost:${server.address.port}")
+        stepikApiClient.isCacheEnabled = false
+    }
+    
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+    
+    @Test
+    fun getAsync() {
+        val transportClient = stepikApiClient.transportClient
+        val futures = (1..50).map {
+            transportClient.getAsync(stepikApiClient, "${stepikApiClient.host}/api/steps/$it", null)
+        }
+        
+        CompletableFuture.allOf(*futures.toTypedArray()).join()
+        
+        futures.forEachIndexed { index, future ->
+            val response = future.join()
+            assertEquals(200, response.statusCode)
+            assertEquals("""{"path":"/api/steps/${index + 1}"}""", response.body)
+        }
+        
+        val poolStats = stepikApiClient.poolStats!!
+        assertEquals(ConnectionPoolConfig().maxTotal, poolStats.max)
+        assertTrue(poolStats.leases >= futures.size)
+    }
+    
+    @Test
+    fun getSync() {
+        val response = stepikApiClient.transportClient[stepikApiClient, "${stepikApiClient.host}/api/steps/7"]
+        
+        assertEquals(200, response.statusCode)
+        assertEquals("""{"path":"/api/steps/7"}""", response.body)
+    }
+    
+    @Test
+    fun gzipResponseIsDecoded() {
+        val url = "${stepikApiClient.host}/api/compressed"
+        
+        val asyncResponse = stepikApiClient.transportClient[stepikApiClient, url]
+        val syncResponse = HttpTransportClient.getInstance("test")[stepikApiClient, url]
+        
+        assertEquals(COMPRESSED_BODY, asyncResponse.body)
+        assertEquals(COMPRESSED_BODY, syncResponse.body)
+    }
+    
+    companion object {
+        private val COMPRESSED_BODY = """{"text":"${"<p>step</p>".repeat(100)}"}"""
+    }
+}
@@ -0,0 +1,204 @@
+package org.stepik.api.client
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import java.io.Closeable
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An embedded stand-in of stepik.org which serves synthetic courses of any size, for tests and benchmarks.
+ *
+ * Every course has [sectionsPerCourse] sections of [lessonsPerSection] lessons (one unit per lesson)
+ * of [stepsPerLesson] steps; every fourth step is a code step. Ids are computed from positions,
+ * so objects are not kept in memory: a section `s` of a course `c` has an id `(c - 1) * sectionsPerCourse + s`,
+ * lessons and steps are numbered the same way. Units have the same ids as their lessons.
+ *
+ * Objects are requested by `/api/<type>/<id>` and `/api/<type>?ids[]=...`.
+ * A posted attempt is active at once, a posted submission is evaluated and becomes correct on the next read.
+ * `/oauth2/token/` issues a token for any grant. Every response is delayed by [latencyMs].
+ */
+class FakeStepikServer @JvmOverloads constructor(
+        val courses: Int = 1,
+        val sectionsPerCourse: Int = 5,
+        val lessonsPerSection: Int = 10,
+        val stepsPerLesson: Int = 8,
+        @Volatile var latencyMs: Long = 0) : Closeable {
+    
+    private val server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+    private val nextId = AtomicLong()
+    private val submissions = ConcurrentHashMap<Long, Long>()
+    val requests = AtomicInteger()
+    
+    val host: String
+        get() = "http://localhost:${server.address.port}"
+    
+    val stepsCount: Long
+        get() = courses.toLong() * sectionsPerCourse * lessonsPerSection * stepsPerLesson
+    
+    init {
+        server.createContext("/api/") { exchange -> respond(exchange) { route(it) } }
+        server.createContext("/oauth2/token/") { exchange ->
+            respond(exchange) {
+                val number = nextId.incrementAndGet()
+                200 to """{"access_token":"token-$number","token_type":"Bearer","expires_in":36000,""" +
+                        """"refresh_token":"refresh-$number","scope":"read write"}"""
+            }
+        }
+        server.executor = Executors.newCachedThreadPool { runnable ->
+            Thread(runnable, "fake-stepik-server").apply { isDaemon = true }
+        }
+        server.start()
+    }
+    
+    override fun close() {
+        server.stop(0)
+    }
+    
+    private fun route(exchange: HttpExchange): Pair<Int, String> {
+        val path = exchange.requestURI.path.removePrefix("/api/").trimEnd('/')
+        val type = path.substringBefore('/')
+        val ids = if (path.contains('/')) listOf(path.substringAfter('/')) else queryIds(exchange)
+        
+        if (exchange.requestMethod == "POST") {
+            val body = exchange.requestBody.use { String(it.readBytes(), UTF_8) }
+            return when (type) {
+                "attempts"    -> 201 to """{"attempts":[${attempt(nextId.incrementAndGet(), number(body, "step"))}]}"""
+                "submissions" -> {
+                    val id = nextId.incrementAndGet()
+                    submissions[id] = number(body, "attempt")
+                    201 to """{"submissions":[${submission(id, "evaluation")}]}"""
+                }
+                else          -> 405 to """{"detail":"Method not allowed"}"""
+            }
+        }
+        
+        val objects = ids.mapNotNull { id ->
+            when (type) {
+                "courses"     -> id.toLongOrNull()?.let { course(it) }
+                "sections"    -> id.toLongOrNull()?.let { section(it) }
+                "units"       -> id.toLongOrNull()?.let { unit(it) }
+                "lessons"     -> id.toLongOrNull()?.let { lesson(it) }
+                "steps"       -> id.toLongOrNull()?.let { step(it) }
+                "progresses"  -> progress(id)
+                "submissions" -> id.toLongOrNull()?.takeIf { submissions.containsKey(it) }?.let { submission(it, "correct") }
+                else          -> null
+            }
+        }
+        
+        if (ids.size == 1 && objects.isEmpty()) {
+            return 404 to """{"detail":"Not found"}"""
+        }
+        val meta = """{"page":1,"has_next":false,"has_previous":false}"""
+        return 200 to """{"meta":$meta,"$type":[${objects.joinToString(",")}]}"""
+    }
+    
+    private fun course(id: Long): String? {
+        if (id !in 1..courses) {
+            return null
+        }
+        val sections = children(id, sectionsPerCourse)
+        return """{"id":$id,"title":"Course $id","summary":"A synthetic course","sections":$sections,""" +
+                """"is_idea_compatible":true,"progress":"78-$id","update_date":"$UPDATE_DATE"}"""
+    }
+    
+    private fun section(id: Long): String? {
+        if (id !in 1..courses.toLong() * sectionsPerCourse) {
+            return null
+        }
+        val course = parent(id, sectionsPerCourse)
+        val position = id - (course - 1) * sectionsPerCourse
+        return """{"id":$id,"course":$course,"title":"Section $id","position":$position,""" +
+                """"units":${children(id, lessonsPerSection)},"progress":"77-$id","update_date":"$UPDATE_DATE"}"""
+    }
+    
+    private fun unit(id: Long): String? {
+        if (!isLesson(id)) {
+            return null
+        }
+        val section = parent(id, lessonsPerSection)
+        val position = id - (section - 1) * lessonsPerSection
+        return """{"id":$id,"section":$section,"lesson":$id,"position":$position,""" +
+                """"progress":"76-$id","update_date":"$UPDATE_DATE"}"""
+    }
+    
+    private fun lesson(id: Long): String? {
+        if (!isLesson(id)) {
+            return null
+        }
+        return """{"id":$id,"title":"Lesson $id","steps":${children(id, stepsPerLesson)},""" +
+                """"progress":"79-$id","update_date":"$UPDATE_DATE"}"""
+    }
+    
+    private fun step(id: Long): String? {
+        if (id !in 1..stepsCount) {
+            return null
+        }
+        val lesson = parent(id, stepsPerLesson)
+        val position = id - (lesson - 1) * stepsPerLesson
+        val block = if (position % 4 == 0L) {
+            """{"name":"code","text":"<p>Write a program $id</p>","options":""" +
+                    """{"code_templates":{"java8":"class Main {\n}"},"limits":{"java8":{"time":8,"memory":256}}}}"""
+        } else {
+            """{"name":"text","text":"<p>A text of a step $id</p>"}"""
+        }
+        return """{"id":$id,"lesson":$lesson,"position":$position,"status":"ready","block":$block,""" +
+                """"progress":"77-$id","update_date":"$UPDATE_DATE"}"""
+    }
+    
+    private fun progress(id: String): String {
+        return """{"id":"$id","is_passed":false,"score":"0","cost":1,"n_steps":1,"n_steps_passed":0}"""
+    }
+    
+    private fun attempt(id: Long, step: Long): String {
+        return """{"id":$id,"step":$step,"status":"active","dataset":{},"time":"$UPDATE_DATE"}"""
+    }
+    
+    private fun submission(id: Long, status: String): String {
+        return """{"id":$id,"attempt":${submissions[id] ?: 0},"status":"$status","reply":{},""" +
+                """"hint":"","time":"$UPDATE_DATE"}"""
+    }
+    
+    private fun isLesson(id: Long) = id in 1..courses.toLong() * sectionsPerCourse * lessonsPerSection
+    
+    private fun children(id: Long, count: Int) = ((id - 1) * count + 1..id * count).joinToString(",", "[", "]")
+    
+    private fun parent(id: Long, count: Int) = (id - 1) / count + 1
+    
+    private fun queryIds(exchange: HttpExchange): List<String> {
+        val query = exchange.requestURI.rawQuery ?: return emptyList()
+        return query.split("&")
+                .map { URLDecoder.decode(it, "UTF-8") }
+                .filter { it.startsWith("ids[]=") }
+                .map { it.substringAfter("=") }
+    }
+    
+    private fun number(body: String, name: String): Long {
+        return Regex(""""$name"\s*:\s*(\d+)""").find(body)?.groupValues?.get(1)?.toLong() ?: 0
+    }
+    
+    private fun respond(exchange: HttpExchange, handler: (HttpExchange) -> Pair<Int, String>) {
+        requests.incrementAndGet()
+        try {
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs)
+            }
+            val (status, body) = handler(exchange)
+            val bytes = body.toByteArray(UTF_8)
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            exchange.sendResponseHeaders(status, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        } finally {
+            exchange.close()
+        }
+    }
+    
+    companion object {
+        private const val UPDATE_DATE = "2018-02-26T05:46:28Z"
+    }
+}
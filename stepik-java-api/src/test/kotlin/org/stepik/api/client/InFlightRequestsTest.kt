@@ -0,0 +1,103 @@
+package org.stepik.api.client
+
+import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class InFlightRequestsTest {
+    @Test
+    fun sharesRequestInFlight() {
+        val inFlightRequests = InFlightRequests()
+        val response = CompletableFuture<String>()
+        val started = AtomicInteger()
+        
+        val first = inFlightRequests.executeAsync("key") {
+            started.incrementAndGet()
+            response
+        }
+        val second = inFlightRequests.executeAsync("key") {
+            started.incrementAndGet()
+            CompletableFuture.completedFuture("other")
+        }
+        response.complete("result")
+        
+        assertEquals(1, started.get())
+        assertSame(first.get(), second.get())
+        assertEquals(0, inFlightRequests.size)
+    }
+    
+    @Test
+    fun startsNewRequestAfterCompletion() {
+        val inFlightRequests = InFlightRequests()
+        
+        assertEquals("first", inFlightRequests.execute("key") { "first" })
+        assertEquals("second", inFlightRequests.execute("key") { "second" })
+    }
+    
+    @Test
+    fun failureReleasesKey() {
+        val inFlightRequests = InFlightRequests()
+        
+        assertFailsWith<IllegalStateException> {
+            inFlightRequests.execute<String>("key") { throw IllegalStateException() }
+        }
+        assertEquals(0, inFlightRequests.size)
+    }
+    
+    @Test
+    fun requestIsCancelledWithLastCaller() {
+        val inFlightRequests = InFlightRequests()
+        val response = CompletableFuture<String>()
+        
+        val first = inFlightRequests.executeAsync("key") { response }
+        val second = inFlightRequests.executeAsync("key") { response }
+        
+        first.cancel(true)
+        assertFalse(response.isCancelled)
+        second.cancel(true)
+        assertTrue(response.isCancelled)
+        assertEquals(0, inFlightRequests.size)
+    }
+    
+    @Test
+    fun waitingCallerKeepsRequestOfCancelledCallers() {
+        val inFlightRequests = InFlightRequests()
+        val response = CompletableFuture<String>()
+        val first = inFlightRequests.executeAsync("key") { response }
+        
+        var second: String? = null
+        val waiter = Thread { second = inFlightRequests.execute("key") { "other" } }
+        waiter.start()
+        while (waiter.state != Thread.State.WAITING) {
+            Thread.sleep(10)
+        }
+        
+        first.cancel(true)
+        assertFalse(response.isCancelled)
+        
+        response.complete("result")
+        waiter.join(5_000)
+        assertEquals("result", second)
+    }
+    
+    @Test
+    fun callersReceiveCopies() {
+        val inFlightRequests = InFlightRequests()
+        val response = CompletableFuture<MutableList<String>>()
+        val copy = { list: MutableList<String> -> list.toMutableList() }
+        
+        val first = inFlightRequests.executeAsync("key", copy) { response }
+        val second = inFlightRequests.executeAsync("key", copy) { response }
+        response.complete(mutableListOf("result"))
+        
+        first.get().add("changed")
+        assertEquals(listOf("result"), second.get())
+        assertNotSame(response.get(), second.get())
+    }
+}
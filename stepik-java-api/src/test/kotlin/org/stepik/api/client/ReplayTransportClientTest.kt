@@ -0,0 +1,109 @@
+package org.stepik.api.client
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.stepik.api.exceptions.StepikClientException
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class ReplayTransportClientTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    
+    private lateinit var server: FakeStepikServer
+    private lateinit var fixtures: FixtureStore
+    
+    @Before
+    fun setUp() {
+        server = FakeStepikServer(courses = 1, sectionsPerCourse = 2, lessonsPerSection = 3, stepsPerLesson = 4)
+        fixtures = FixtureStore(temporaryFolder.newFolder("fixtures").toPath())
+    }
+    
+    @After
+    fun tearDown() {
+        server.close()
+    }
+    
+    @Test
+    fun recordedResponsesAreReplayedWithoutServer() {
+        val recording = RecordingTransportClient(HttpTransportClient.getInstance("test"), fixtures)
+        val recorded = loadCourse(client(recording))
+        val requests = server.requests.get()
+        server.close()
+        
+        assertEquals(requests, fixtures.size)
+        assertEquals(listOf(1L, 2L), recorded.sections)
+        assertEquals((1L..24L).toList(), recorded.steps)
+        
+        val replay = ReplayTransportClient(fixtures, latencyMs = 20)
+        val start = System.nanoTime()
+        val replayed = loadCourse(client(replay))
+        val elapsedMs = (System.nanoTime() - start) / 1_000_000
+        
+        assertEquals(recorded, replayed)
+        assertTrue(elapsedMs >= 20 * 4, "Replayed in $elapsedMs ms")
+        assertFailsWith<StepikClientException> {
+            client(replay).lessons().get().id(100L).execute()
+        }
+    }
+    
+    @Test
+    fun replayIsThrottled() {
+        val recording = RecordingTransportClient(HttpTransportClient.getInstance("test"), fixtures)
+        client(recording).steps().get().id(4L).execute()
+        val size = fixtures.load("GET", "${server.host}/api/steps/4", null)!!.content.size
+        
+        val replay = ReplayTransportClient(fixtures, bytesPerSecond = 1000)
+        val start = System.nanoTime()
+        val step = client(replay).steps().get().id(4L).execute().first()
+        val elapsedMs = (System.nanoTime() - start) / 1_000_000
+        
+        assertEquals("code", step.block?.name)
+        assertTrue(elapsedMs >= size * 1000L / 1000 * 8 / 10, "Read $size bytes in $elapsedMs ms")
+    }
+    
+    @Test
+    fun conditionalResponsesAreReplayedOnlyForConditionalRequests() {
+        val url = "${server.host}/api/steps/4"
+        val conditions = mapOf("Range" to "bytes=10-", "Authorization" to "Bearer token")
+        fixtures.save(FixtureStore.Fixture("GET", url, null, 206, emptyMap(), ByteArray(4),
+                FixtureStore.conditions(conditions)))
+        
+        assertEquals(null, fixtures.load("GET", url, null))
+        assertEquals(null, fixtures.load("GET", url, null, mapOf("Range" to "bytes=20-")))
+        assertEquals(206, fixtures.load("GET", url, null, mapOf("range" to "bytes=10-"))?.statusCode)
+        
+        fixtures.save(FixtureStore.Fixture("GET", url, null, 200, emptyMap(), ByteArray(8)))
+        assertEquals(200, fixtures.load("GET", url, null, mapOf("Authorization" to "Bearer other"))?.statusCode)
+        assertEquals(2, fixtures.size)
+    }
+    
+    private fun client(transportClient: TransportClient): StepikApiClient {
+        val stepikApiClient = StepikApiClient(transportClient, server.host)
+        stepikApiClient.cachePath = temporaryFolder.root.toPath().resolve("cache")
+        stepikApiClient.isCacheEnabled = false
+        stepikApiClient.isQueryCacheEnabled = false
+        return stepikApiClient
+    }
+    
+    private fun loadCourse(stepikApiClient: StepikApiClient): LoadedCourse {
+        val course = stepikApiClient.courses().get().id(1L).execute().first()
+        val sections = stepikApiClient.sections().get().id(course.sections).execute()
+        val units = sections.flatMap { it.units }
+        val lessons = stepikApiClient.lessons().get().id(units).executeAsync().join()
+        val steps = lessons.flatMap { it.steps }
+        stepikApiClient.steps().get().id(steps).execute()
+        
+        val attempt = stepikApiClient.attempts().post().step(steps.last()).execute().first()
+        val submission = stepikApiClient.submissions().post().attempt(attempt.id).text("answer").execute().first()
+        val status = stepikApiClient.submissions().get().id(submission.id).execute().first().status
+        
+        return LoadedCourse(sections.map { it.id }, steps, status)
+    }
+    
+    private data class LoadedCourse(val sections: List<Long>, val steps: List<Long>, val status: String?)
+}
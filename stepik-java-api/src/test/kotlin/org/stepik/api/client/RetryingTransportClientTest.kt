@@ -0,0 +1,126 @@
+package org.stepik.api.client
+
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.stepik.api.exceptions.StepikClientException
+import java.net.InetSocketAddress
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class RetryingTransportClientTest {
+    private lateinit var server: HttpServer
+    private lateinit var stepikApiClient: StepikApiClient
+    private val requests = AtomicInteger()
+    private val failures = AtomicInteger()
+    private val limited = AtomicInteger()
+    
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/api/steps") { exchange ->
+            requests.incrementAndGet()
+            if (failures.getAndDecrement() > 0) {
+                exchange.responseHeaders.add("Retry-After", "0")
+                exchange.sendResponseHeaders(503, -1)
+                exchange.close()
+                return@createContext
+            }
+            val body = "{}".toByteArray(UTF_8)
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.createContext("/api/limited") { exchange ->
+            requests.incrementAndGet()
+            val body = "{}".toByteArray(UTF_8)
+            if (limited.getAndDecrement() > 0) {
+                exchange.responseHeaders.add("Retry-After", "0")
+                exchange.sendResponseHeaders(429, body.size.toLong())
+            } else {
+                exchange.sendResponseHeaders(200, body.size.toLong())
+            }
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.start()
+        
+        val policy = RetryPolicy(maxAttempts = 3, baseDelayMs = 1, failureThreshold = 4, openCircuitMs = 60_000)
+        val transportClient = RetryingTransportClient(AsyncHttpTransportClient.getInstance("test"), policy)
+        stepikApiClient = StepikApiClient(transportClient, "http://localhost:${server.address.port}")
+    }
+    
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+    
+    @Test
+    fun getIsRetried() {
+        failures.set(2)
+        
+        val response = stepikApiClient.transportClient[stepikApiClient, "${stepikApiClient.host}/api/steps"]
+        
+        assertEquals(200, response.statusCode)
+        assertEquals(3, requests.get())
+    }
+    
+    @Test
+    fun asyncGetIsRetried() {
+        failures.set(1)
+        
+        val response = stepikApiClient.transportClient
+                .getAsync(stepikApiClient, "${stepikApiClient.host}/api/steps", null)
+                .join()
+        
+        assertEquals(200, response.statusCode)
+        assertEquals(2, requests.get())
+    }
+    
+    @Test
+    fun lastFailureIsReturned() {
+        failures.set(5)
+        
+        val response = stepikApiClient.transportClient[stepikApiClient, "${stepikApiClient.host}/api/steps"]
+        
+        assertEquals(503, response.statusCode)
+        assertEquals(3, requests.get())
+    }
+    
+    @Test
+    fun postIsNotRetried() {
+        failures.set(1)
+        
+        val response = stepikApiClient.transportClient.post(stepikApiClient, "${stepikApiClient.host}/api/steps", "")
+        
+        assertEquals(503, response.statusCode)
+        assertEquals(1, requests.get())
+    }
+    
+    @Test
+    fun circuitOpensAfterFailures() {
+        failures.set(10)
+        val url = "${stepikApiClient.host}/api/steps"
+        
+        stepikApiClient.transportClient[stepikApiClient, url]
+        
+        // The fourth failure in a row opens the circuit before the retry
+        assertFailsWith<StepikClientException> { stepikApiClient.transportClient[stepikApiClient, url] }
+        assertFailsWith<StepikClientException> { stepikApiClient.transportClient[stepikApiClient, url] }
+        assertEquals(4, requests.get())
+    }
+    
+    @Test
+    fun rateLimitDoesNotOpenCircuit() {
+        limited.set(9)
+        val url = "${stepikApiClient.host}/api/limited"
+        
+        repeat(3) {
+            assertEquals(429, stepikApiClient.transportClient[stepikApiClient, url].statusCode)
+        }
+        
+        assertEquals(200, stepikApiClient.transportClient[stepikApiClient, url].statusCode)
+        assertEquals(10, requests.get())
+    }
+}
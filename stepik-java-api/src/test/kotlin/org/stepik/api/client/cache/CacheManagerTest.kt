@@ -0,0 +1,107 @@
+package org.stepik.api.client.cache
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.stepik.api.client.HttpTransportClient
+import org.stepik.api.client.StepikApiClient
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class CacheManagerTest {
+
+    private lateinit var directory: Path
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("cache-manager")
+    }
+
+    @After
+    fun tearDown() {
+        directory.toFile().deleteRecursively()
+    }
+
+    @Test
+    fun evictionKeepsRecentlyReadEntriesWithinBudget() {
+        val manager = CacheManager(directory)
+        val content = "x".repeat(200)
+        for (id in 1..10) {
+            manager.put("steps", id.toString(), content)
+            Thread.sleep(2)
+        }
+        manager.get("steps", "1")
+
+        assertTrue(manager.isSegmented)
+        manager.maxSize = 1000
+        assertTrue(manager.evict() > 0)
+        assertNotNull(manager.get("steps", "1"))
+        assertNotNull(manager.get("steps", "10"))
+        assertNull(manager.get("steps", "2"))
+        manager.close()
+
+        val segmentsSize = Files.list(directory.resolve(CacheManager.SEGMENTS_DIRECTORY)).use { files ->
+            files.filter { it.toString().endsWith(".seg") }.mapToLong { Files.size(it) }.sum()
+        }
+        assertTrue(segmentsSize <= 1000, "Segments take $segmentsSize bytes")
+    }
+
+    @Test
+    fun anotherProcessFallsBackToFiles() {
+        val first = CacheManager(directory)
+        val second = CacheManager(directory)
+        first.put("steps", "1", "segmented")
+        second.put("steps", "2", "file")
+
+        assertTrue(first.isSegmented)
+        assertFalse(second.isSegmented)
+        assertEquals("file", second.get("steps", "2")?.content)
+        assertTrue(Files.exists(directory.resolve("steps").resolve("2.json")))
+        assertNull(second.get("steps", "1"))
+
+        first.close()
+        second.close()
+        val third = CacheManager(directory)
+        assertTrue(third.isSegmented)
+        assertEquals("segmented", third.get("steps", "1")?.content)
+        third.close()
+    }
+
+    @Test
+    fun expiredFilesAreEvicted() {
+        val store = FileCacheStore(directory)
+        store.put("lessons", "1", "old")
+        store.put("lessons", "2", "new")
+        val old = directory.resolve("lessons").resolve("1.json")
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 10_000))
+
+        assertEquals(1, store.evict(Long.MAX_VALUE, 5_000))
+        assertNull(store.get("lessons", "1"))
+        assertEquals("new", store.get("lessons", "2")?.content)
+        Files.list(directory.resolve("lessons")).use { files ->
+            assertEquals(listOf("2.json"), files.map { it.fileName.toString() }.toArray().toList())
+        }
+    }
+
+    @Test
+    fun configuredStoreIsKeptWhenCachePathChanges() {
+        val stepikApiClient = StepikApiClient(HttpTransportClient.getInstance("test"), "http://localhost")
+        stepikApiClient.cachePath = directory.resolve("first")
+        assertSame(stepikApiClient.cacheManager, stepikApiClient.cacheStore)
+
+        val store = FileCacheStore(directory.resolve("files"))
+        stepikApiClient.cacheStore = store
+        stepikApiClient.cachePath = directory.resolve("second")
+
+        assertSame(store, stepikApiClient.cacheStore)
+        assertEquals(directory.resolve("second"), stepikApiClient.cacheManager.cachePath)
+        stepikApiClient.cacheManager.close()
+    }
+}
@@ -0,0 +1,44 @@
+package org.stepik.api.client.cache
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class ObjectCacheTest {
+
+    @Test
+    fun leastRecentlyUsedIsEvicted() {
+        val cache = ObjectCache(30)
+        cache.put(String::class.java, "1", "one", 10)
+        cache.put(String::class.java, "2", "two", 10)
+        cache.put(String::class.java, "3", "three", 10)
+
+        cache.get(String::class.java, "1", Long.MAX_VALUE)
+        cache.put(String::class.java, "4", "four", 10)
+
+        assertEquals("one", cache.get(String::class.java, "1", Long.MAX_VALUE))
+        assertNull(cache.get(String::class.java, "2", Long.MAX_VALUE))
+        assertEquals(1, cache.evictions)
+        assertEquals(30, cache.weight)
+    }
+
+    @Test
+    fun expiredEntryIsMiss() {
+        val cache = ObjectCache()
+        cache.put(String::class.java, "1", "one", 10, System.currentTimeMillis() - 1000)
+
+        assertNull(cache.get(String::class.java, "1", 500))
+        assertEquals(0, cache.hits)
+        assertEquals(1, cache.misses)
+        assertEquals(0, cache.size)
+    }
+
+    @Test
+    fun keysAreSeparatedByClass() {
+        val cache = ObjectCache()
+        cache.put(String::class.java, "1", "one", 10)
+
+        assertNull(cache.get(Int::class.javaObjectType, "1", Long.MAX_VALUE))
+        assertEquals("one", cache.get(String::class.java, "1", Long.MAX_VALUE))
+    }
+}
@@ -0,0 +1,130 @@
+package org.stepik.api.client.cache
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.APPEND
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class SegmentedCacheStoreTest {
+
+    private lateinit var directory: Path
+    private lateinit var store: SegmentedCacheStore
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("segmented-cache")
+        store = SegmentedCacheStore(directory, 1024)
+    }
+
+    @After
+    fun tearDown() {
+        store.close()
+        directory.toFile().deleteRecursively()
+    }
+
+    @Test
+    fun putAndGet() {
+        store.put("steps", "1", "{\"id\":1}")
+        store.put("lessons", "1", "{\"id\":1,\"title\":\"урок\"}")
+
+        assertEquals("{\"id\":1}", store.get("steps", "1")?.content)
+        assertEquals("{\"id\":1,\"title\":\"урок\"}", store.get("lessons", "1")?.content)
+        assertNull(store.get("steps", "2"))
+    }
+
+    @Test
+    fun newerEntryShadowsOlder() {
+        store.put("steps", "1", "old")
+        store.put("steps", "1", "new")
+
+        assertEquals("new", store.get("steps", "1")?.content)
+    }
+
+    @Test
+    fun reopen() {
+        store.put("steps", "1", "first")
+        store.put("steps", "2", "second")
+        store.put("steps", "1", "third")
+        store.remove("steps", "2")
+        store.close()
+
+        val reopened = SegmentedCacheStore(directory, 1024)
+
+        assertEquals("third", reopened.get("steps", "1")?.content)
+        assertNull(reopened.get("steps", "2"))
+        reopened.close()
+    }
+
+    @Test
+    fun brokenTailIsTruncated() {
+        store.put("steps", "1", "first")
+        store.close()
+
+        val segment = Files.list(directory).use { it.findFirst().get() }
+        Files.write(segment, byteArrayOf(0, 0, 0, 100, 1, 2), APPEND)
+
+        val reopened = SegmentedCacheStore(directory, 1024)
+        assertEquals("first", reopened.get("steps", "1")?.content)
+        reopened.put("steps", "2", "second")
+        reopened.close()
+
+        val again = SegmentedCacheStore(directory, 1024)
+        assertEquals("second", again.get("steps", "2")?.content)
+        again.close()
+    }
+
+    @Test
+    fun compaction() {
+        val content = "x".repeat(100)
+        repeat(100) {
+            store.put("steps", (it % 5).toString(), "$content$it")
+        }
+
+        (0 until 5).forEach {
+            assertEquals("$content${95 + it}", store.get("steps", it.toString())?.content)
+        }
+        store.compact()
+        val segmentsSize = Files.list(directory).use { files -> files.mapToLong { Files.size(it) }.sum() }
+        assertTrue(segmentsSize < 100 * content.length)
+
+        store.close()
+        val reopened = SegmentedCacheStore(directory, 1024)
+        assertEquals(5, reopened.size)
+        assertEquals("${content}99", reopened.get("steps", "4")?.content)
+        reopened.close()
+    }
+
+    @Test
+    fun writesDuringCompactionAreKept() {
+        val content = "x".repeat(100)
+        repeat(50) {
+            store.put("steps", (it % 10).toString(), "$content$it")
+        }
+
+        val writer = Thread {
+            repeat(200) {
+                store.put("steps", (it % 10).toString(), "new$it")
+                if (it % 7 == 0) {
+                    store.remove("steps", ((it + 3) % 10).toString())
+                }
+            }
+        }
+        writer.start()
+        repeat(5) { store.compact() }
+        writer.join()
+        store.compact()
+
+        val expected = (0 until 10).map { store.get("steps", it.toString())?.content }
+        assertEquals((190 until 200).map { "new$it" }, expected)
+        store.close()
+
+        val reopened = SegmentedCacheStore(directory, 1024)
+        assertEquals(expected, (0 until 10).map { reopened.get("steps", it.toString())?.content })
+        reopened.close()
+    }
+}
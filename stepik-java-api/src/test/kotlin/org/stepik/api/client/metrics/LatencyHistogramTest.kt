@@ -0,0 +1,40 @@
+package org.stepik.api.client.metrics
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class LatencyHistogramTest {
+    @Test
+    fun percentilesAreWithinPrecision() {
+        val histogram = LatencyHistogram()
+        (1L..10000L).forEach { histogram.record(it) }
+        
+        assertEquals(10000, histogram.totalCount)
+        assertEquals(10000, histogram.maxValue)
+        assertEquals(5000.5, histogram.mean)
+        listOf(50.0 to 5000L, 90.0 to 9000L, 99.0 to 9900L).forEach { (percentile, expected) ->
+            val value = histogram.percentile(percentile)
+            assertTrue(value >= expected && value <= expected * 17 / 16, "p$percentile is $value")
+        }
+        assertEquals(10000, histogram.percentile(100.0))
+    }
+    
+    @Test
+    fun smallValuesAreExact() {
+        val histogram = LatencyHistogram()
+        listOf(0L, 3L, 7L).forEach { histogram.record(it) }
+        
+        assertEquals(0, histogram.percentile(10.0))
+        assertEquals(3, histogram.percentile(50.0))
+        assertEquals(7, histogram.percentile(99.0))
+    }
+    
+    @Test
+    fun endpointsAreTemplates() {
+        assertEquals("/api/steps/{id}", RequestEvent.endpointOf("https://stepik.org/api/steps/12?page=2"))
+        assertEquals("/api/steps", RequestEvent.endpointOf("https://stepik.org/api/steps?ids[]=1&ids[]=2"))
+        assertEquals("/api/progresses/{id}", RequestEvent.endpointOf("https://stepik.org/api/progresses/77-12"))
+        assertEquals("/", RequestEvent.endpointOf("https://stepik.org"))
+    }
+}
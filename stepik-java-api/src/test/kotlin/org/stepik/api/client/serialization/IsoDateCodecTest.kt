@@ -0,0 +1,49 @@
+package org.stepik.api.client.serialization
+
+import org.junit.Test
+import java.time.Instant
+import java.time.OffsetDateTime
+import java.time.temporal.ChronoUnit
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class IsoDateCodecTest {
+    @Test
+    fun formatsAndParsesLikeJavaTime() {
+        val random = Random(42)
+        repeat(10000) {
+            val instant = Instant.ofEpochSecond(random.nextInt(Int.MAX_VALUE).toLong() * 2 - Int.MAX_VALUE)
+            val text = IsoDateCodec.format(Date.from(instant))
+            
+            assertEquals(instant.toString(), text)
+            assertEquals(instant.toEpochMilli(), IsoDateCodec.parseMillis(text))
+        }
+    }
+    
+    @Test
+    fun parsesFractionsAndOffsets() {
+        listOf(
+                "2018-02-26T05:46:28.5Z",
+                "2018-02-26T05:46:28.123456Z",
+                "2018-02-26T08:46:28+03:00",
+                "2018-02-25T23:16:28-0630",
+                "2016-02-29T00:00:00+01"
+        ).forEach {
+            val expected = OffsetDateTime.parse(it.replace(Regex("([+-]\\d\\d)(\\d\\d)$"), "$1:$2")
+                    .replace(Regex("([+-]\\d\\d)$"), "$1:00"))
+                    .toInstant()
+                    .truncatedTo(ChronoUnit.MILLIS)
+            assertEquals(expected.toEpochMilli(), IsoDateCodec.parseMillis(it), it)
+        }
+        assertEquals(Date(1519623988000), IsoDateCodec.parse("2018-02-26T05:46:28"))
+    }
+    
+    @Test
+    fun malformedTextIsNull() {
+        listOf("", "null", "2018-02-26", "2018-02-30T05:46:28Z", "2018-02-26T24:00:00Z", "2018-02-26T05:46:28.Z",
+                "2018-02-26T05:46:28Zx", "2018-02-26T05:46:28+3", "2018-13-26T05:46:28Z", "2O18-02-26T05:46:28Z")
+                .forEach { assertNull(IsoDateCodec.parseMillis(it), it) }
+        assertNull(IsoDateCodec.parse(null))
+    }
+}
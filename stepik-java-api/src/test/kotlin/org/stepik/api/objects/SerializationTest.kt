@@ -2,6 +2,7 @@ package org.stepik.api.objects
 
 import org.junit.Test
 import org.stepik.api.client.serialization.DefaultJsonConverter
+import org.stepik.api.objects.attempts.Attempts
 import org.stepik.api.objects.lessons.CompoundUnitLesson
 import org.stepik.api.objects.lessons.Lesson
 import org.stepik.api.objects.lessons.Lessons
@@ -76,6 +77,41 @@ class SerializationTest {
         val json = readJson("submissions.json")
         assertNotNull(DefaultJsonConverter.fromJson(json, Submissions::class.java))
     }
+
+    @Test
+    fun submissionsFromStream() {
+        val expected = DefaultJsonConverter.fromJson(readJson("submissions.json"), Submissions::class.java)
+        val reader = javaClass.getResourceAsStream("serialization/submissions.json").reader()
+
+        val actual = reader.use { DefaultJsonConverter.fromJson(it, Submissions::class.java) }
+
+        assertEquals(expected, actual)
+    }
+
+    @Test
+    fun streamingAdaptersReadLikeReflection() {
+        val steps = """{"steps":[{"id":5,"lesson":3,"position":2,"status":null,"worth":null,"correct_ratio":0.5,
+            |"block":{"name":"choice","text":"a\u0001b","video":null,"options":{},"subtitle_files":["en"]},
+            |"actions":{"edit":"#"},"update_date":"2018-02-26T05:46:28Z","unknown":{"a":[1,2]}}]}""".trimMargin()
+        val attempts = """{"attempts":[{"id":1,"dataset":{"is_multiple_choice":false,"options":["a","b"],
+            |"pairs":[{"first":"x","second":"y"}],"components":[]}},{"id":2,"dataset":"text"}]}""".trimMargin()
+        val sources = listOf(
+                readJson("submissions.json") to Submissions::class.java,
+                steps to Steps::class.java,
+                attempts to Attempts::class.java
+        )
+
+        sources.forEach { (json, clazz) ->
+            val streamed = DefaultJsonConverter.toJson(DefaultJsonConverter.fromJson(json, clazz), false)
+            DefaultJsonConverter.isStreamingAdaptersEnabled = false
+            try {
+                val reflected = DefaultJsonConverter.toJson(DefaultJsonConverter.fromJson(json, clazz), false)
+                assertEquals(reflected, streamed, clazz.simpleName)
+            } finally {
+                DefaultJsonConverter.isStreamingAdaptersEnabled = true
+            }
+        }
+    }
 }
 
 fun <T : Any> T.assertNotNullPropertiesIsNotNull() {
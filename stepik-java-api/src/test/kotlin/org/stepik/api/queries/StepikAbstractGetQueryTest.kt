@@ -0,0 +1,248 @@
+package org.stepik.api.queries
+
+import com.sun.net.httpserver.HttpServer
+import org.apache.http.client.utils.DateUtils
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.stepik.api.client.AsyncHttpTransportClient
+import org.stepik.api.client.StepikApiClient
+import org.stepik.api.client.cache.CacheEntry
+import org.stepik.api.client.cache.CacheStore
+import org.stepik.api.client.cache.ObjectCache
+import org.stepik.api.client.metrics.HistogramCollector
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.Collections
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class StepikAbstractGetQueryTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+    
+    private lateinit var server: HttpServer
+    private lateinit var stepikApiClient: StepikApiClient
+    private val requests = AtomicInteger()
+    private val ifModifiedSince = Collections.synchronizedList(mutableListOf<String>())
+    
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/api/lessons") { exchange ->
+            requests.incrementAndGet()
+            val since = exchange.requestHeaders.getFirst("If-Modified-Since")
+            if (since != null) {
+                ifModifiedSince.add(since)
+                exchange.sendResponseHeaders(304, -1)
+                exchange.close()
+                return@createContext
+            }
+            val uri = exchange.requestURI
+            val query = URLDecoder.decode(uri.rawQuery ?: "", "UTF-8").split("&")
+            val page = query.firstOrNull { it.startsWith("page=") }?.substringAfter("=")?.toInt() ?: 1
+            val ids = if (uri.rawQuery == null) {
+                listOf(uri.path.substringAfterLast("/"))
+            } else if (uri.rawQuery.startsWith("course=")) {
+                listOf("9", "7", "8")
+            } else {
+                query.filter { it.startsWith("ids[]=") }.map { it.substringAfter("=") }
+            }
+            // The server does not keep the order of ids and returns them by pages
+            val pageIds = ids.reversed().drop((page - 1) * PAGE_SIZE).take(PAGE_SIZE)
+            val hasNext = ids.size > page * PAGE_SIZE
+            val lessons = pageIds.joinToString(",") { """{"id":$it}""" }
+            val body = """{"meta":{"page":$page,"has_next":$hasNext},"lessons":[$lessons]}""".toByteArray(UTF_8)
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.createContext("/api/submissions") { exchange ->
+            requests.incrementAndGet()
+            val page = exchange.requestURI.query.substringAfter("page=").substringBefore("&").toInt()
+            val body = """{"meta":{"page":$page,"has_next":${page < 3}},"submissions":[{"id":$page}]}"""
+                    .toByteArray(UTF_8)
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.start()
+        
+        val transportClient = AsyncHttpTransportClient.getInstance("test")
+        stepikApiClient = StepikApiClient(transportClient, "http://localhost:${server.address.port}")
+        stepikApiClient.cachePath = temporaryFolder.root.toPath()
+        stepikApiClient.idsChunkSize = 20
+    }
+    
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+    
+    @Test
+    fun listenersReceiveRequestsAndCacheLookups() {
+        val collector = HistogramCollector()
+        stepikApiClient.requestListeners.add(collector)
+        
+        stepikApiClient.lessons().get().id(1L, 2L).execute()
+        stepikApiClient.lessons().get().id(1L, 2L, 3L).execute()
+        
+        val lookups = collector["GET /api/lessons"]!!
+        assertEquals(2, lookups.cacheHits.get())
+        assertEquals(3, lookups.cacheMisses.get())
+        assertEquals(1, lookups.totalTime.totalCount)
+        
+        val single = collector["GET /api/lessons/{id}"]!!
+        assertEquals(1, single.totalTime.totalCount)
+        assertTrue(single.bytes.get() > 0)
+        assertTrue(collector.dump().contains("GET /api/lessons/{id}"))
+    }
+    
+    @Test
+    fun idsAreRequestedInChunks() {
+        stepikApiClient.isCacheEnabled = false
+        val ids = (1L..45L).toList()
+        
+        val lessons = stepikApiClient.lessons()
+                .get()
+                .id(ids)
+                .execute()
+        
+        assertEquals(3, requests.get())
+        assertEquals(ids, lessons.items.map { it.id })
+    }
+    
+    @Test
+    fun chunksLargerThanPageAreRequestedByPages() {
+        stepikApiClient.isCacheEnabled = false
+        stepikApiClient.idsChunkSize = 45
+        val ids = (1L..45L).toList()
+        
+        val lessons = stepikApiClient.lessons()
+                .get()
+                .id(ids)
+                .execute()
+        assertEquals(3, requests.get())
+        assertEquals(ids, lessons.items.map { it.id })
+        
+        val asyncLessons = stepikApiClient.lessons()
+                .get()
+                .id(ids)
+                .executeAsync()
+                .join()
+        assertEquals(6, requests.get())
+        assertEquals(ids, asyncLessons.items.map { it.id })
+    }
+    
+    @Test
+    fun staleObjectsAreRevalidatedInServerTime() {
+        val cacheTime = System.currentTimeMillis() - 10 * 60 * 1000
+        stepikApiClient.cacheStore = AgedCacheStore(cacheTime)
+        stepikApiClient.lessons().get().id(1L, 2L).execute()
+        stepikApiClient.objectCache = ObjectCache()
+        val skew = 60 * 60 * 1000L
+        stepikApiClient.serverClock.update(DateUtils.formatDate(Date(System.currentTimeMillis() + skew)))
+        
+        val lessons = stepikApiClient.lessons()
+                .get()
+                .id(1L, 2L, 3L)
+                .execute()
+        
+        assertEquals(listOf(1L, 2L, 3L), lessons.items.map { it.id })
+        assertEquals(3, requests.get())
+        val since = DateUtils.parseDate(ifModifiedSince.single()).time
+        assertTrue(Math.abs(since - (cacheTime + skew)) < 3000, "If-Modified-Since is ${ifModifiedSince.single()}")
+    }
+    
+    @Test
+    fun asyncResultKeepsOrderOfIds() {
+        val ids = (50L downTo 1L).toList()
+        
+        val lessons = stepikApiClient.lessons()
+                .get()
+                .id(ids)
+                .executeAsync()
+                .join()
+        
+        assertEquals(3, requests.get())
+        assertEquals(ids, lessons.items.map { it.id })
+    }
+    
+    @Test
+    fun cachedIdsAreNotRequested() {
+        stepikApiClient.lessons()
+                .get()
+                .id(1L, 2L, 3L)
+                .execute()
+        
+        val lessons = stepikApiClient.lessons()
+                .get()
+                .id(3L, 4L, 1L)
+                .execute()
+        
+        assertEquals(2, requests.get())
+        assertEquals(listOf(3L, 4L, 1L), lessons.items.map { it.id })
+    }
+    
+    @Test
+    fun filterQueriesAreServedFromCache() {
+        val first = stepikApiClient.lessons().get().course(1).execute()
+        val second = stepikApiClient.lessons().get().course(1).executeAsync().join()
+        
+        assertEquals(1, requests.get())
+        assertEquals(first.items.map { it.id }, second.items.map { it.id })
+        
+        stepikApiClient.lessons().get().course(2).execute()
+        assertEquals(2, requests.get())
+        
+        stepikApiClient.isQueryCacheEnabled = false
+        stepikApiClient.lessons().get().course(1).execute()
+        assertEquals(3, requests.get())
+    }
+    
+    @Test
+    fun pagesFollowHasNext() {
+        val ids = stepikApiClient.submissions()
+                .get()
+                .pages()
+                .use { pages -> pages.asSequence().flatMap { it.items.asSequence() }.map { it.id }.toList() }
+        
+        assertEquals(listOf(1L, 2L, 3L), ids)
+        assertEquals(3, requests.get())
+    }
+    
+    @Test
+    fun closedPagesStopLoading() {
+        val first = stepikApiClient.submissions()
+                .get()
+                .page(2)
+                .pages()
+                .use { pages -> pages.next() }
+        
+        assertEquals(2, first.meta.page)
+        // The prefetched third page is cancelled, it may have been sent already
+        assertTrue(requests.get() <= 2)
+    }
+    
+    private class AgedCacheStore(private val updateTime: Long) : CacheStore {
+        private val entries = ConcurrentHashMap<String, String>()
+        
+        override fun get(region: String, id: String) = entries["$region/$id"]?.let { CacheEntry(it, updateTime) }
+        
+        override fun put(region: String, id: String, content: String) {
+            entries["$region/$id"] = content
+        }
+        
+        override fun remove(region: String, id: String) {
+            entries.remove("$region/$id")
+        }
+    }
+    
+    companion object {
+        private const val PAGE_SIZE = 20
+    }
+}